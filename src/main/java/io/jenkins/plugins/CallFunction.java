@@ -68,6 +68,10 @@ public class CallFunction extends Builder implements SimpleBuildStep {
     private String functionName;
     private String argument;
     private String[] argumentList;
+    private String outputFile;
+    private boolean jsonLines;
+    private boolean cacheResult;
+    private int timeout;
     private static final ResourceBundle BUNDLE = ResourceBundle.getBundle("io.jenkins.plugins.Messages");
 
     public CallFunction() {}
@@ -108,6 +112,51 @@ public class CallFunction extends Builder implements SimpleBuildStep {
         this.argumentList = argumentList;
     }
 
+    public String getOutputFile() {
+        return outputFile;
+    }
+
+    /**
+     * @param outputFile file of the workspace to stream the result to, instead of printing it
+     */
+    @DataBoundSetter
+    public void setOutputFile(String outputFile) {
+        this.outputFile = outputFile;
+    }
+
+    public boolean isJsonLines() {
+        return jsonLines;
+    }
+
+    @DataBoundSetter
+    public void setJsonLines(boolean jsonLines) {
+        this.jsonLines = jsonLines;
+    }
+
+    public boolean isCacheResult() {
+        return cacheResult;
+    }
+
+    /**
+     * @param cacheResult whether the function is a query whose result only depends on the project inputs
+     */
+    @DataBoundSetter
+    public void setCacheResult(boolean cacheResult) {
+        this.cacheResult = cacheResult;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout minutes after which the requests of the step fail, 0 for the global default
+     */
+    @DataBoundSetter
+    public void setTimeout(int timeout) {
+        this.timeout = Math.max(0, timeout);
+    }
+
     @Override
     public CallFunction.DescriptorImpl getDescriptor() {
         return (CallFunction.DescriptorImpl) super.getDescriptor();
@@ -117,48 +166,65 @@ public class CallFunction extends Builder implements SimpleBuildStep {
     @Override
     public void perform(Run run, FilePath fp, Launcher lnchr, TaskListener listener)
             throws InterruptedException, IOException {
-        String reqtifyLang = "eng";
-        Process reqtifyProcess;
-        int reqtifyPort;
-        Utils.initReqtifyProcess();
-        reqtifyPort = ReqtifyData.reqtifyLanguagePortMap.get(reqtifyLang);
-        reqtifyProcess = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
+        // Cached results are answered without taking a Reqtify lease
+        String cacheKey = null;
+        String flightKey = null;
+        if (cacheResult && (outputFile == null || outputFile.isEmpty())) {
+            String workspacePath = Utils.getWorkspacePath(run.getParent().getName());
+            String functionRequest = ReqtifyFunctionCall.toRequest(this.functionName, argumentList);
+            cacheKey = ReqtifyResultCache.key(functionRequest, workspacePath);
+            Object cached = ReqtifyData.resultCache.get(cacheKey);
+            if (cached != null) {
+                listener.getLogger().print("\n\n" + this.functionName + " result (cached):\n" + cached + "\n\n");
+                run.setResult(Result.SUCCESS);
+                return;
+            }
+            // The same query of another build on the same project content is shared
+            flightKey = ReqtifySingleFlight.key(functionRequest, workspacePath);
+            Object shared = ReqtifyData.flights.await(flightKey, listener);
+            if (shared != null) {
+                listener.getLogger().print("\n\n" + this.functionName + " result (shared):\n" + shared + "\n\n");
+                run.setResult(Result.SUCCESS);
+                return;
+            }
+        }
+        Object result = null;
+        ReqtifySession session;
         try {
+            session = new ReqtifySession(ReqtifyLane.BUILD, run.getParent().getFullName(), listener);
+        } catch (ConnectException e) {
+            ReqtifyData.flights.land(flightKey, null);
+            listener.error(e.getMessage());
+            run.setResult(Result.FAILURE);
+            return;
+        } catch (IOException | RuntimeException e) {
+            ReqtifyData.flights.land(flightKey, null);
+            throw e;
+        }
+        try {
+            session.startTimeout(timeout);
             // Open the project if it is first request that means if project is not opened
 
             String currentWorkspace = Utils.getWorkspacePath(run.getParent().getName());
-            String openProjectUrl = "http://localhost:" + reqtifyPort + "/jenkins/openProject?dir=" + currentWorkspace;
-            ReqtifyData.utils.executeGET(openProjectUrl, reqtifyProcess, false);
-
-            String targetUrl = "http://localhost:" + reqtifyPort + "/jenkins/" + this.functionName + "?";
-            String arg1 = "";
-            String arg2 = "";
-            if (argumentList != null && argumentList.length > 0) {
-                for (String argumentList1 : argumentList) {
-                    if (argumentList1.startsWith("ns_")) {
-                        arg1 += argumentList1.split("_")[1] + ",";
-                    } else {
-                        arg2 += argumentList1 + ",";
-                    }
-                }
-                if (!arg1.isEmpty()) {
-                    targetUrl += "arg1=";
-                    arg1 = arg1.substring(0, arg1.length() - 1);
-                    targetUrl += arg1;
-                }
-                if (!arg2.isEmpty()) {
-                    targetUrl += "&arg2=";
-                    arg2 = arg2.substring(0, arg2.length() - 1);
-                    targetUrl += arg2;
+            session.openProject(currentWorkspace);
+
+            String targetUrl = ReqtifyFunctionCall.toRequest(this.functionName, argumentList);
+
+            if (outputFile != null && !outputFile.isEmpty()) {
+                Object summary = session.call(targetUrl, true, new ReqtifyResultFile(fp.child(outputFile), jsonLines));
+                listener.getLogger()
+                        .print("\n\n" + this.functionName + " result " + ReqtifyResultFile.summarize(summary) + "\n\n");
+            } else {
+                result = session.call(targetUrl, true);
+                listener.getLogger().print("\n\n" + this.functionName + " result:\n" + result.toString() + "\n\n");
+                if (cacheKey != null) {
+                    ReqtifyData.resultCache.put(cacheKey, result);
                 }
             }
-
-            Object result = ReqtifyData.utils.executeGET(targetUrl, reqtifyProcess, true);
-            listener.getLogger().print("\n\n" + this.functionName + " result:\n" + result.toString() + "\n\n");
             run.setResult(Result.SUCCESS);
         } catch (ParseException ex) {
             Logger.getLogger(CallFunction.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (ConnectException e) {
+        } catch (ConnectException | ReqtifyTimeoutException e) {
             listener.error(e.getMessage());
             run.setResult(Result.FAILURE);
         } catch (ReqtifyException re) {
@@ -166,15 +232,13 @@ public class CallFunction extends Builder implements SimpleBuildStep {
                 listener.error(re.getMessage());
                 run.setResult(Result.FAILURE);
             } else {
-                Process p = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
-                if (p.isAlive()) p.destroy();
-
-                ReqtifyData.reqtfyLanguageProcessMap.remove(reqtifyLang);
-                ReqtifyData.reqtifyLanguagePortMap.remove(reqtifyLang);
-                listener.error(ReqtifyData.utils.getLastLineOfFile(
-                        ReqtifyData.tempDir + "reqtifyLog_" + reqtifyPort + ".log"));
+                ReqtifyData.registry.retire(session.getInstance());
+                listener.error(ReqtifyData.utils.getLastLineOfFile(session.getInstance().getLogFile()));
                 run.setResult(Result.FAILURE);
             }
+        } finally {
+            session.close();
+            ReqtifyData.flights.land(flightKey, result);
         }
     }
 
@@ -189,63 +253,42 @@ public class CallFunction extends Builder implements SimpleBuildStep {
 
         private ListBoxModel getFunctions() throws ReqtifyException {
             ListBoxModel m = new ListBoxModel();
-            synchronized (ReqtifyData.class) {
-                try {
-                    String currentJob = "";
-                    String currentWorkspace;
-                    reqtifyFunctionError = "";
-                    Pattern pattern = Pattern.compile("job/(.*?)/descriptorByName");
-                    Matcher matcher =
-                            pattern.matcher(Jenkins.get().getDescriptor().getDescriptorFullUrl());
-                    while (matcher.find()) {
-                        currentJob = matcher.group(1);
-                    }
-                    currentWorkspace = Utils.getWorkspacePath(currentJob);
-                    String reqtifyLang = "eng";
-                    Utils.initReqtifyProcess();
-                    int reqtifyPort = ReqtifyData.reqtifyLanguagePortMap.get(reqtifyLang);
-                    Process reqtifyProcess = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
-
-                    String targetURLFunctions = "http://localhost:" + reqtifyPort + "/jenkins/getFunctions?";
-                    try {
+            try {
+                String currentJob = "";
+                String currentWorkspace;
+                reqtifyFunctionError = "";
+                Pattern pattern = Pattern.compile("job/(.*?)/descriptorByName");
+                Matcher matcher =
+                        pattern.matcher(Jenkins.get().getDescriptor().getDescriptorFullUrl());
+                while (matcher.find()) {
+                    currentJob = matcher.group(1);
+                }
+                currentWorkspace = Utils.getWorkspacePath(currentJob);
 
-                        String openProjectUrl =
-                                "http://localhost:" + reqtifyPort + "/jenkins/openProject?dir=" + currentWorkspace;
-                        ReqtifyData.utils.executeGET(openProjectUrl, reqtifyProcess, false);
-
-                        JSONArray functionsResult =
-                                (JSONArray) ReqtifyData.utils.executeGET(targetURLFunctions, reqtifyProcess, false);
-                        Iterator<JSONObject> itr = functionsResult.iterator();
-                        m.add("Select Function");
-                        int index = 1;
-                        // functions parameters
-                        while (itr.hasNext()) {
-                            JSONObject function = (JSONObject) itr.next();
-                            m.add(function.get("label").toString());
-                            m.get(index++).value = function.get("name").toString();
-                            JSONArray functionParamters = (JSONArray) function.get("parameters");
-                            functionParamterMap.put(function.get("name").toString(), functionParamters);
-                        }
-                    } catch (ParseException ex) {
-                        Logger.getLogger(CallFunction.class.getName()).log(Level.SEVERE, null, ex);
-                    } catch (ConnectException ce) {
-                        // Show some error
-                    } catch (ReqtifyException re) {
-                        if (re.getMessage().length() > 0) {
-                            reqtifyFunctionError = re.getMessage();
-                        } else {
-                            Process p = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
-                            if (p.isAlive()) p.destroy();
-
-                            ReqtifyData.reqtfyLanguageProcessMap.remove(reqtifyLang);
-                            ReqtifyData.reqtifyLanguagePortMap.remove(reqtifyLang);
-                            reqtifyFunctionError = ReqtifyData.utils.getLastLineOfFile(
-                                    ReqtifyData.tempDir + "reqtifyLog_" + reqtifyPort + ".log");
-                        }
+                String targetURLFunctions = "getFunctions?";
+                try {
+                    JSONArray functionsResult =
+                            (JSONArray) ReqtifyData.metadata.load(currentJob, currentWorkspace, targetURLFunctions);
+                    Iterator<JSONObject> itr = functionsResult.iterator();
+                    m.add("Select Function");
+                    int index = 1;
+                    // functions parameters
+                    while (itr.hasNext()) {
+                        JSONObject function = (JSONObject) itr.next();
+                        m.add(function.get("label").toString());
+                        m.get(index++).value = function.get("name").toString();
+                        JSONArray functionParamters = (JSONArray) function.get("parameters");
+                        functionParamterMap.put(function.get("name").toString(), functionParamters);
                     }
-                } catch (IOException | AccessDeniedException e) {
+                } catch (ParseException ex) {
+                    Logger.getLogger(CallFunction.class.getName()).log(Level.SEVERE, null, ex);
+                } catch (ConnectException ce) {
+                    // Show some error
+                } catch (ReqtifyException re) {
+                    reqtifyFunctionError = re.getMessage();
                 }
-            } // end synchronize
+            } catch (IOException | AccessDeniedException e) {
+            }
             return m;
         }
 
@@ -274,9 +317,12 @@ public class CallFunction extends Builder implements SimpleBuildStep {
         public List<String> renderParamUI(String functionName, String currentJob) {
             reqtifyFunctionError = "";
             List<String> htmlList = new ArrayList<>();
-            String reqtifyLang = "eng";
-            Process reqtifyProcess = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
-            int reqtifyPort = ReqtifyData.reqtifyLanguagePortMap.get(reqtifyLang);
+            String currentWorkspace;
+            try {
+                currentWorkspace = Utils.getWorkspacePath(currentJob);
+            } catch (IOException e) {
+                return htmlList;
+            }
             JSONArray functionParameters;
             do {
                 functionParameters = functionParamterMap.get(functionName);
@@ -314,11 +360,10 @@ public class CallFunction extends Builder implements SimpleBuildStep {
                 if (param.containsKey("isScalar")) isScalar = ((boolean) param.get("isScalar"));
                 if (!isScalar) {
                     String getFunctionParamValueURL =
-                            "http://localhost:" + reqtifyPort + "/jenkins/getFunctionParameterValues?functionName="
-                                    + functionName + "&paramIndex=" + index;
+                            "getFunctionParameterValues?functionName=" + functionName + "&paramIndex=" + index;
                     try {
                         JSONArray paramValueResult = (JSONArray)
-                                ReqtifyData.utils.executeGET(getFunctionParamValueURL, reqtifyProcess, false);
+                                ReqtifyData.metadata.load(currentJob, currentWorkspace, getFunctionParamValueURL);
                         if (!paramValueResult.isEmpty()) {
                             String html =
                                     "<tr class=\"function-param\">" + "	<td class=\"setting-leftspace\">&nbsp;</td>"
@@ -356,17 +401,7 @@ public class CallFunction extends Builder implements SimpleBuildStep {
                     } catch (ParseException | IOException ex) {
                         Logger.getLogger(CallFunction.class.getName()).log(Level.SEVERE, null, ex);
                     } catch (ReqtifyException re) {
-                        if (re.getMessage().length() > 0) {
-                            reqtifyFunctionError = re.getMessage();
-                        } else {
-                            Process p = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
-                            if (p.isAlive()) p.destroy();
-
-                            ReqtifyData.reqtfyLanguageProcessMap.remove(reqtifyLang);
-                            ReqtifyData.reqtifyLanguagePortMap.remove(reqtifyLang);
-                            reqtifyFunctionError = ReqtifyData.utils.getLastLineOfFile(
-                                    ReqtifyData.tempDir + "reqtifyLog_" + reqtifyPort + ".log");
-                        }
+                        reqtifyFunctionError = re.getMessage();
                     }
                 } else {
                     scalarParams.add(param);
@@ -25,10 +25,12 @@ package io.jenkins.plugins;
 
 import com.google.common.collect.ImmutableSet;
 import hudson.Extension;
+import hudson.FilePath;
 import hudson.model.Result;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.util.ListBoxModel;
+import java.io.File;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.util.*;
@@ -44,7 +46,7 @@ import org.jenkinsci.plugins.workflow.steps.Step;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
 import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
 import org.jenkinsci.plugins.workflow.steps.StepExecution;
-import org.jenkinsci.plugins.workflow.steps.SynchronousStepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.ParseException;
@@ -52,47 +54,95 @@ import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.bind.JavaScriptMethod;
 
-@edu.umd.cs.findbugs.annotations.SuppressFBWarnings("ST_WRITE_TO_STATIC_FROM_INSTANCE_METHOD")
 public class CallFunctionPipelineStep extends Step {
 
     private static final Logger logger = Logger.getLogger(ReportGenerationPipelineStep.class.getName());
-    private static String functionName;
-    private static String argument;
-    private static String[] argumentList;
+    private String functionName;
+    private String argument;
+    private String[] argumentList;
+    private String outputFile;
+    private boolean jsonLines;
+    private boolean cacheResult;
+    private int timeout;
     private static final ResourceBundle BUNDLE = ResourceBundle.getBundle("io.jenkins.plugins.Messages");
 
     public String getFunctionName() {
-        return CallFunctionPipelineStep.functionName;
+        return functionName;
     }
 
     public String getArgument() {
-        return CallFunctionPipelineStep.argument;
+        return argument;
     }
 
     @edu.umd.cs.findbugs.annotations.SuppressFBWarnings("EI_EXPOSE_REP")
     public String[] getArgumentList() {
-        return CallFunctionPipelineStep.argumentList;
+        return argumentList;
     }
 
     @DataBoundSetter
     public void setFunctionName(@Nonnull String functionName) {
-        CallFunctionPipelineStep.functionName = functionName;
+        this.functionName = functionName;
     }
 
     @DataBoundSetter
     public void setArgument(@Nonnull String argument) {
-        CallFunctionPipelineStep.argument = argument;
+        this.argument = argument;
     }
 
     @DataBoundSetter
     public void setArgumentList(@Nonnull String[] argumentList) {
-        CallFunctionPipelineStep.argumentList = argumentList;
+        this.argumentList = argumentList;
+    }
+
+    public String getOutputFile() {
+        return outputFile;
+    }
+
+    /**
+     * @param outputFile file of the workspace to stream the result to, instead of printing it
+     */
+    @DataBoundSetter
+    public void setOutputFile(String outputFile) {
+        this.outputFile = outputFile;
+    }
+
+    public boolean isJsonLines() {
+        return jsonLines;
+    }
+
+    @DataBoundSetter
+    public void setJsonLines(boolean jsonLines) {
+        this.jsonLines = jsonLines;
+    }
+
+    public boolean isCacheResult() {
+        return cacheResult;
+    }
+
+    /**
+     * @param cacheResult whether the function is a query whose result only depends on the project inputs
+     */
+    @DataBoundSetter
+    public void setCacheResult(boolean cacheResult) {
+        this.cacheResult = cacheResult;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout minutes after which the requests of the step fail, 0 for the global default
+     */
+    @DataBoundSetter
+    public void setTimeout(int timeout) {
+        this.timeout = Math.max(0, timeout);
     }
 
     @DataBoundConstructor
     public CallFunctionPipelineStep(String functionName, String[] argumentList) {
-        CallFunctionPipelineStep.functionName = functionName;
-        CallFunctionPipelineStep.argumentList = argumentList;
+        this.functionName = functionName;
+        this.argumentList = argumentList;
     }
 
     @Override
@@ -150,9 +200,12 @@ public class CallFunctionPipelineStep extends Step {
         public List<String> renderParamUI(String functionName, String currentJob) {
             reqtifyFunctionError = "";
             List<String> htmlList = new ArrayList<>();
-            String reqtifyLang = "eng";
-            Process reqtifyProcess = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
-            int reqtifyPort = ReqtifyData.reqtifyLanguagePortMap.get(reqtifyLang);
+            String currentWorkspace;
+            try {
+                currentWorkspace = Utils.getWorkspacePath(currentJob);
+            } catch (IOException e) {
+                return htmlList;
+            }
             JSONArray functionParameters;
             do {
                 functionParameters = functionParamterMap.get(functionName);
@@ -190,11 +243,10 @@ public class CallFunctionPipelineStep extends Step {
                 if (param.containsKey("isScalar")) isScalar = ((boolean) param.get("isScalar"));
                 if (!isScalar) {
                     String getFunctionParamValueURL =
-                            "http://localhost:" + reqtifyPort + "/jenkins/getFunctionParameterValues?functionName="
-                                    + functionName + "&paramIndex=" + index;
+                            "getFunctionParameterValues?functionName=" + functionName + "&paramIndex=" + index;
                     try {
                         JSONArray paramValueResult = (JSONArray)
-                                ReqtifyData.utils.executeGET(getFunctionParamValueURL, reqtifyProcess, false);
+                                ReqtifyData.metadata.load(currentJob, currentWorkspace, getFunctionParamValueURL);
                         if (!paramValueResult.isEmpty()) {
                             String html =
                                     "<tr class=\"function-param\">" + "	<td class=\"setting-leftspace\">&nbsp;</td>"
@@ -232,17 +284,7 @@ public class CallFunctionPipelineStep extends Step {
                     } catch (ParseException | IOException ex) {
                         Logger.getLogger(CallFunction.class.getName()).log(Level.SEVERE, null, ex);
                     } catch (ReqtifyException re) {
-                        if (re.getMessage().length() > 0) {
-                            reqtifyFunctionError = re.getMessage();
-                        } else {
-                            Process p = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
-                            if (p.isAlive()) p.destroy();
-
-                            ReqtifyData.reqtfyLanguageProcessMap.remove(reqtifyLang);
-                            ReqtifyData.reqtifyLanguagePortMap.remove(reqtifyLang);
-                            reqtifyFunctionError = ReqtifyData.utils.getLastLineOfFile(
-                                    ReqtifyData.tempDir + "reqtifyLog_" + reqtifyPort + ".log");
-                        }
+                        reqtifyFunctionError = re.getMessage();
                     }
                 } else {
                     scalarParams.add(param);
@@ -278,69 +320,49 @@ public class CallFunctionPipelineStep extends Step {
 
         public ListBoxModel doFillFunctionNameItems() throws InterruptedException, IOException {
             ListBoxModel m = new ListBoxModel();
-            synchronized (ReqtifyData.class) {
-                try {
-                    String currentJob = "";
-                    String currentWorkspace;
-                    reqtifyFunctionError = "";
-                    Pattern pattern = Pattern.compile("job/(.*?)/pipeline-syntax/descriptorByName");
-                    Matcher matcher =
-                            pattern.matcher(Jenkins.get().getDescriptor().getDescriptorFullUrl());
-                    while (matcher.find()) {
-                        currentJob = matcher.group(1);
-                    }
-                    currentWorkspace = Utils.getWorkspacePath(currentJob);
-                    String reqtifyLang = "eng";
-                    Utils.initReqtifyProcess();
-                    int reqtifyPort = ReqtifyData.reqtifyLanguagePortMap.get(reqtifyLang);
-                    Process reqtifyProcess = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
-
-                    String targetURLFunctions = "http://localhost:" + reqtifyPort + "/jenkins/getFunctions?";
-                    try {
+            try {
+                String currentJob = "";
+                String currentWorkspace;
+                reqtifyFunctionError = "";
+                Pattern pattern = Pattern.compile("job/(.*?)/pipeline-syntax/descriptorByName");
+                Matcher matcher =
+                        pattern.matcher(Jenkins.get().getDescriptor().getDescriptorFullUrl());
+                while (matcher.find()) {
+                    currentJob = matcher.group(1);
+                }
+                currentWorkspace = Utils.getWorkspacePath(currentJob);
 
-                        String openProjectUrl =
-                                "http://localhost:" + reqtifyPort + "/jenkins/openProject?dir=" + currentWorkspace;
-                        ReqtifyData.utils.executeGET(openProjectUrl, reqtifyProcess, false);
-
-                        JSONArray functionsResult =
-                                (JSONArray) ReqtifyData.utils.executeGET(targetURLFunctions, reqtifyProcess, false);
-                        Iterator<JSONObject> itr = functionsResult.iterator();
-                        m.add("Select Function");
-                        int index = 1;
-                        // functions parameters
-                        while (itr.hasNext()) {
-                            JSONObject function = (JSONObject) itr.next();
-                            m.add(function.get("label").toString());
-                            m.get(index++).value = function.get("name").toString();
-                            JSONArray functionParamters = (JSONArray) function.get("parameters");
-                            functionParamterMap.put(function.get("name").toString(), functionParamters);
-                        }
-                    } catch (ParseException ex) {
-                        Logger.getLogger(CallFunction.class.getName()).log(Level.SEVERE, null, ex);
-                    } catch (ConnectException ce) {
-                        // Show some error
-                    } catch (ReqtifyException re) {
-                        if (re.getMessage().length() > 0) {
-                            reqtifyFunctionError = re.getMessage();
-                        } else {
-                            Process p = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
-                            if (p.isAlive()) p.destroy();
-
-                            ReqtifyData.reqtfyLanguageProcessMap.remove(reqtifyLang);
-                            ReqtifyData.reqtifyLanguagePortMap.remove(reqtifyLang);
-                            reqtifyFunctionError = ReqtifyData.utils.getLastLineOfFile(
-                                    ReqtifyData.tempDir + "reqtifyLog_" + reqtifyPort + ".log");
-                        }
+                String targetURLFunctions = "getFunctions?";
+                try {
+                    JSONArray functionsResult =
+                            (JSONArray) ReqtifyData.metadata.load(currentJob, currentWorkspace, targetURLFunctions);
+                    Iterator<JSONObject> itr = functionsResult.iterator();
+                    m.add("Select Function");
+                    int index = 1;
+                    // functions parameters
+                    while (itr.hasNext()) {
+                        JSONObject function = (JSONObject) itr.next();
+                        m.add(function.get("label").toString());
+                        m.get(index++).value = function.get("name").toString();
+                        JSONArray functionParamters = (JSONArray) function.get("parameters");
+                        functionParamterMap.put(function.get("name").toString(), functionParamters);
                     }
-                } catch (IOException | AccessDeniedException e) {
+                } catch (ParseException ex) {
+                    Logger.getLogger(CallFunction.class.getName()).log(Level.SEVERE, null, ex);
+                } catch (ConnectException ce) {
+                    // Show some error
+                } catch (ReqtifyException re) {
+                    reqtifyFunctionError = re.getMessage();
                 }
-            } // end synchronize
+            } catch (IOException | AccessDeniedException e) {
+            }
 
             return m;
         }
     } // End Descriptorimpl
 
-    private static class CallFunctionPipelineStepExecution extends SynchronousStepExecution<String> {
+    // Waiting for a lease or another build and sending the requests run off the CPS VM thread
+    private static class CallFunctionPipelineStepExecution extends SynchronousNonBlockingStepExecution<Object> {
         private static final long serialVersionUID = 1L;
 
         private final transient CallFunctionPipelineStep step;
@@ -352,51 +374,71 @@ public class CallFunctionPipelineStep extends Step {
 
         @Override
         @edu.umd.cs.findbugs.annotations.SuppressFBWarnings("SBSC_USE_STRINGBUFFER_CONCATENATION")
-        protected String run() throws Exception {
+        protected Object run() throws Exception {
             Run run = getContext().get(Run.class);
             TaskListener listener = getContext().get(TaskListener.class);
-            String reqtifyLang = "eng";
-            Process reqtifyProcess;
-            int reqtifyPort;
-            Utils.initReqtifyProcess();
-            reqtifyPort = ReqtifyData.reqtifyLanguagePortMap.get(reqtifyLang);
-            reqtifyProcess = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
+            // The cache key, the shared request and the request sent are the same
+            String functionName = step.functionName;
+            String functionRequest = ReqtifyFunctionCall.toRequest(functionName, step.argumentList);
+            // Inside a reqtifySession block, reuse its instance, lease and open project
+            ReqtifySession enclosingSession = ReqtifySessionStep.getEnclosingSession(getContext());
+            // Cached results are answered without taking a Reqtify lease
+            String cacheKey = null;
+            String flightKey = null;
+            if (step.cacheResult && (step.outputFile == null || step.outputFile.isEmpty())) {
+                String workspacePath = Utils.getWorkspacePath(run.getParent().getName());
+                cacheKey = ReqtifyResultCache.key(functionRequest, workspacePath);
+                Object cached = ReqtifyData.resultCache.get(cacheKey);
+                if (cached != null) {
+                    listener.getLogger().print("\n\n" + functionName + " result (cached):\n" + cached + "\n\n");
+                    run.setResult(Result.SUCCESS);
+                    return Utils.toPipelineValue(cached);
+                }
+                // The same query of another build on the same project content is shared, unless a
+                // reqtifySession block holds a lease the other build may be waiting for
+                flightKey =
+                        enclosingSession == null ? ReqtifySingleFlight.key(functionRequest, workspacePath) : null;
+                Object shared = ReqtifyData.flights.await(flightKey, listener);
+                if (shared != null) {
+                    listener.getLogger().print("\n\n" + functionName + " result (shared):\n" + shared + "\n\n");
+                    run.setResult(Result.SUCCESS);
+                    return Utils.toPipelineValue(shared);
+                }
+            }
+            Object result = null;
+            ReqtifySession session;
+            try {
+                session = enclosingSession != null
+                        ? enclosingSession
+                        : new ReqtifySession(ReqtifyLane.BUILD, run.getParent().getFullName(), listener);
+            } catch (IOException | RuntimeException e) {
+                ReqtifyData.flights.land(flightKey, null);
+                throw e;
+            }
             try {
+                session.startTimeout(step.timeout);
                 // Open the project if it is first request that means if project is not opened
                 String currentWorkspace = Utils.getWorkspacePath(run.getParent().getName());
-                String openProjectUrl =
-                        "http://localhost:" + reqtifyPort + "/jenkins/openProject?dir=" + currentWorkspace;
-                ReqtifyData.utils.executeGET(openProjectUrl, reqtifyProcess, false);
-
-                String targetUrl = "http://localhost:" + reqtifyPort + "/jenkins/" + functionName + "?";
-                String arg1 = "";
-                String arg2 = "";
-                if (argumentList != null && argumentList.length > 0) {
-                    for (String argumentList1 : argumentList) {
-                        if (argumentList1.startsWith("ns_")) {
-                            arg1 += argumentList1.split("_")[1] + ",";
-                        } else {
-                            arg2 += argumentList1 + ",";
-                        }
-                    }
-                    if (!arg1.isEmpty()) {
-                        targetUrl += "arg1=";
-                        arg1 = arg1.substring(0, arg1.length() - 1);
-                        targetUrl += arg1;
-                    }
-                    if (!arg2.isEmpty()) {
-                        targetUrl += "&arg2=";
-                        arg2 = arg2.substring(0, arg2.length() - 1);
-                        targetUrl += arg2;
-                    }
+                session.openProject(currentWorkspace);
+
+                if (step.outputFile != null && !step.outputFile.isEmpty()) {
+                    FilePath file = new FilePath(new File(currentWorkspace)).child(step.outputFile);
+                    Object summary = session.call(functionRequest, true, new ReqtifyResultFile(file, step.jsonLines));
+                    listener.getLogger()
+                            .print("\n\n" + functionName + " result " + ReqtifyResultFile.summarize(summary) + "\n\n");
+                    run.setResult(Result.SUCCESS);
+                    return summary;
                 }
-
-                Object result = ReqtifyData.utils.executeGET(targetUrl, reqtifyProcess, true);
+                result = session.call(functionRequest, true);
                 listener.getLogger().print("\n\n" + functionName + " result:\n" + result.toString() + "\n\n");
+                if (cacheKey != null) {
+                    ReqtifyData.resultCache.put(cacheKey, result);
+                }
                 run.setResult(Result.SUCCESS);
+                return Utils.toPipelineValue(result);
             } catch (ParseException ex) {
                 Logger.getLogger(CallFunction.class.getName()).log(Level.SEVERE, null, ex);
-            } catch (ConnectException e) {
+            } catch (ConnectException | ReqtifyTimeoutException e) {
                 listener.error(e.getMessage());
                 run.setResult(Result.FAILURE);
             } catch (ReqtifyException re) {
@@ -404,17 +446,17 @@ public class CallFunctionPipelineStep extends Step {
                     listener.error(re.getMessage());
                     run.setResult(Result.FAILURE);
                 } else {
-                    Process p = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
-                    if (p.isAlive()) p.destroy();
-
-                    ReqtifyData.reqtfyLanguageProcessMap.remove(reqtifyLang);
-                    ReqtifyData.reqtifyLanguagePortMap.remove(reqtifyLang);
-                    listener.error(ReqtifyData.utils.getLastLineOfFile(
-                            ReqtifyData.tempDir + "reqtifyLog_" + reqtifyPort + ".log"));
+                    ReqtifyData.registry.retire(session.getInstance());
+                    listener.error(ReqtifyData.utils.getLastLineOfFile(session.getInstance().getLogFile()));
                     run.setResult(Result.FAILURE);
                 }
+            } finally {
+                if (enclosingSession == null) {
+                    session.close();
+                }
+                ReqtifyData.flights.land(flightKey, result);
             }
-            return "";
+            return null;
         }
     }
 }
@@ -0,0 +1,202 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import com.google.common.collect.ImmutableSet;
+import hudson.Extension;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import org.json.simple.parser.ParseException;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * Calls several Reqtify functions in order on one instance, opening the project once:
+ * <pre>
+ * def results = reqtifyFunctions calls: [
+ *     [functionName: 'coverage', argumentList: ['ns_1']],
+ *     [functionName: 'uncovered']
+ * ]
+ * </pre>
+ * A failing call does not prevent the next ones. Each result is a map with the function name, its
+ * result or error and its duration.
+ *
+ * @author Dassault Systèmes
+ */
+public class CallFunctionsPipelineStep extends Step {
+
+    private final List<ReqtifyFunctionCall> calls;
+    private int timeout;
+
+    @DataBoundConstructor
+    public CallFunctionsPipelineStep(List<ReqtifyFunctionCall> calls) {
+        this.calls = calls != null ? new ArrayList<>(calls) : new ArrayList<>();
+    }
+
+    public List<ReqtifyFunctionCall> getCalls() {
+        return new ArrayList<>(calls);
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout minutes after which the requests of the step fail, 0 for the global default
+     */
+    @DataBoundSetter
+    public void setTimeout(int timeout) {
+        this.timeout = Math.max(0, timeout);
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new CallFunctionsPipelineStepExecution(this, context);
+    }
+
+    @Extension
+    public static class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public String getFunctionName() {
+            return "reqtifyFunctions";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Reqtify: Call Functions";
+        }
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return ImmutableSet.of(Run.class, TaskListener.class);
+        }
+    }
+
+    // Waiting for a lease and sending the requests run off the CPS VM thread
+    private static class CallFunctionsPipelineStepExecution
+            extends SynchronousNonBlockingStepExecution<List<Map<String, Object>>> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient CallFunctionsPipelineStep step;
+
+        CallFunctionsPipelineStepExecution(CallFunctionsPipelineStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        protected List<Map<String, Object>> run() throws Exception {
+            Run run = getContext().get(Run.class);
+            TaskListener listener = getContext().get(TaskListener.class);
+            List<Map<String, Object>> results = new ArrayList<>();
+            // Inside a reqtifySession block, reuse its instance, lease and open project
+            ReqtifySession enclosingSession = ReqtifySessionStep.getEnclosingSession(getContext());
+            ReqtifySession session = enclosingSession != null
+                    ? enclosingSession
+                    : new ReqtifySession(ReqtifyLane.BUILD, run.getParent().getFullName(), listener);
+            String crashError = null;
+            try {
+                session.startTimeout(step.timeout);
+                session.openProject(Utils.getWorkspacePath(run.getParent().getName()));
+                for (ReqtifyFunctionCall call : step.calls) {
+                    Map<String, Object> result = new LinkedHashMap<>();
+                    result.put("functionName", call.getFunctionName());
+                    long start = System.nanoTime();
+                    if (crashError != null) {
+                        // The instance is gone, the remaining calls would fail the same way
+                        result.put("error", crashError);
+                    } else {
+                        try {
+                            result.put("result", Utils.toPipelineValue(session.call(call.toRequest(), true)));
+                        } catch (ReqtifyException re) {
+                            if (re.getMessage().length() > 0) {
+                                result.put("error", re.getMessage());
+                            } else {
+                                ReqtifyData.registry.retire(session.getInstance());
+                                crashError = ReqtifyData.utils.getLastLineOfFile(
+                                        session.getInstance().getLogFile());
+                                result.put("error", crashError);
+                            }
+                        } catch (ParseException | IOException e) {
+                            if (Thread.currentThread().isInterrupted()) {
+                                // The build was aborted, skip the remaining calls
+                                throw e;
+                            }
+                            result.put("error", e.getMessage());
+                        }
+                    }
+                    long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    result.put("duration", duration);
+                    results.add(result);
+                    print(listener, result);
+                }
+            } catch (ConnectException | ReqtifyTimeoutException e) {
+                listener.error(e.getMessage());
+                run.setResult(Result.FAILURE);
+                return results;
+            } catch (ReqtifyException re) {
+                if (re.getMessage().length() > 0) {
+                    listener.error(re.getMessage());
+                } else {
+                    ReqtifyData.registry.retire(session.getInstance());
+                    listener.error(ReqtifyData.utils.getLastLineOfFile(session.getInstance().getLogFile()));
+                }
+                run.setResult(Result.FAILURE);
+                return results;
+            } finally {
+                if (enclosingSession == null) {
+                    session.close();
+                }
+            }
+            if (results.stream().anyMatch(result -> result.containsKey("error"))) {
+                run.setResult(Result.FAILURE);
+            }
+            return results;
+        }
+
+        private static void print(TaskListener listener, Map<String, Object> result) {
+            String header = result.get("functionName") + " (" + result.get("duration") + " ms)";
+            if (result.containsKey("error")) {
+                listener.error(header + " failed: " + result.get("error"));
+            } else {
+                listener.getLogger().print("\n\n" + header + " result:\n" + result.get("result") + "\n\n");
+            }
+        }
+    }
+}
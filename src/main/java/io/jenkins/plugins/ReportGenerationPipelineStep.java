@@ -25,14 +25,18 @@ package io.jenkins.plugins;
 
 import com.google.common.collect.ImmutableSet;
 import hudson.Extension;
+import hudson.FilePath;
 import hudson.model.Result;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.util.ListBoxModel;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.net.URLEncoder;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -46,7 +50,7 @@ import org.jenkinsci.plugins.workflow.steps.Step;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
 import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
 import org.jenkinsci.plugins.workflow.steps.StepExecution;
-import org.jenkinsci.plugins.workflow.steps.SynchronousStepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.ParseException;
@@ -54,62 +58,74 @@ import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.bind.JavaScriptMethod;
 
-@edu.umd.cs.findbugs.annotations.SuppressFBWarnings("ST_WRITE_TO_STATIC_FROM_INSTANCE_METHOD")
 public class ReportGenerationPipelineStep extends Step {
 
     private static final Logger logger = Logger.getLogger(ReportGenerationPipelineStep.class.getName());
 
-    private static String nameReport;
-    private static String modelReport;
-    private static String templateReport;
-    private static String[] reportArgumentList;
-    private static String lang;
+    private String nameReport;
+    private String modelReport;
+    private String templateReport;
+    private String[] reportArgumentList;
+    private String lang;
+    private int timeout;
     private static final ResourceBundle BUNDLE = ResourceBundle.getBundle("io.jenkins.plugins.Messages");
 
     @Nonnull
     public String getNameReport() {
-        return ReportGenerationPipelineStep.nameReport;
+        return nameReport;
     }
 
     public String getModelReport() {
-        return ReportGenerationPipelineStep.modelReport;
+        return modelReport;
     }
 
     public String getTemplateReport() {
-        return ReportGenerationPipelineStep.templateReport;
+        return templateReport;
     }
 
     public String getLang() {
-        return ReportGenerationPipelineStep.lang;
+        return lang;
     }
 
     @edu.umd.cs.findbugs.annotations.SuppressFBWarnings("EI_EXPOSE_REP")
     public String[] getReportArgumentList() {
-        return ReportGenerationPipelineStep.reportArgumentList;
+        return reportArgumentList;
     }
 
     @DataBoundSetter
     public void setNameReport(@Nonnull String nameReport) {
-        ReportGenerationPipelineStep.nameReport = nameReport;
+        this.nameReport = nameReport;
     }
 
     @DataBoundSetter
     public void setModelReport(String modelReport) {
-        ReportGenerationPipelineStep.modelReport = modelReport;
+        this.modelReport = modelReport;
     }
 
     @DataBoundSetter
     public void setTemplateReport(String templateReport) {
-        ReportGenerationPipelineStep.templateReport = templateReport;
+        this.templateReport = templateReport;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout minutes after which the requests of the step fail, 0 for the global default
+     */
+    @DataBoundSetter
+    public void setTimeout(int timeout) {
+        this.timeout = Math.max(0, timeout);
     }
 
     @DataBoundConstructor
     public ReportGenerationPipelineStep(
             String nameReport, String modelReport, String templateReport, String[] reportArgumentList) {
-        ReportGenerationPipelineStep.nameReport = nameReport;
-        ReportGenerationPipelineStep.modelReport = modelReport;
-        ReportGenerationPipelineStep.templateReport = templateReport;
-        ReportGenerationPipelineStep.reportArgumentList = reportArgumentList;
+        this.nameReport = nameReport;
+        this.modelReport = modelReport;
+        this.templateReport = templateReport;
+        this.reportArgumentList = reportArgumentList;
     }
 
     @Override
@@ -119,6 +135,8 @@ public class ReportGenerationPipelineStep extends Step {
 
     @Extension
     public static class DescriptorImpl extends StepDescriptor {
+        // Lists of the dropdowns of the configuration page, loaded together
+        private static final List<String> PAGE_REQUESTS = Arrays.asList("getReportModels?", "getReportTemplates?");
         private String reqtifyError;
         private final Map<String, JSONArray> functionParamterMap;
 
@@ -146,9 +164,12 @@ public class ReportGenerationPipelineStep extends Step {
         public List<String> renderReportParamUI(String functionName, String currentJob) {
             reqtifyError = "";
             List<String> htmlList = new ArrayList<>();
-            String reqtifyLang = "eng";
-            Process reqtifyProcess = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
-            int reqtifyPort = ReqtifyData.reqtifyLanguagePortMap.get(reqtifyLang);
+            String currentWorkspace;
+            try {
+                currentWorkspace = Utils.getWorkspacePath(currentJob);
+            } catch (IOException e) {
+                return htmlList;
+            }
             JSONArray functionParameters;
             do {
                 functionParameters = functionParamterMap.get(functionName);
@@ -182,11 +203,11 @@ public class ReportGenerationPipelineStep extends Step {
                 boolean isScalar = false;
                 if (param.containsKey("isScalar")) isScalar = ((boolean) param.get("isScalar"));
                 if (!isScalar) {
-                    String getFunctionParamValueURL = "http://localhost:" + reqtifyPort
-                            + "/jenkins/getReportParameterValues?functionName=" + functionName + "&paramIndex=" + index;
+                    String getFunctionParamValueURL =
+                            "getReportParameterValues?functionName=" + functionName + "&paramIndex=" + index;
                     try {
                         JSONArray paramValueResult = (JSONArray)
-                                ReqtifyData.utils.executeGET(getFunctionParamValueURL, reqtifyProcess, false);
+                                ReqtifyData.metadata.load(currentJob, currentWorkspace, getFunctionParamValueURL);
                         if (!paramValueResult.isEmpty()) {
                             String html = "<tr class=\"report-param\">" + "	<td class=\"setting-leftspace\">&nbsp;</td>"
                                     + "	<td class=\"setting-name\">"
@@ -220,17 +241,7 @@ public class ReportGenerationPipelineStep extends Step {
                     } catch (ParseException | IOException ex) {
                         Logger.getLogger(CallFunction.class.getName()).log(Level.SEVERE, null, ex);
                     } catch (ReqtifyException re) {
-                        if (re.getMessage().length() > 0) {
-                            reqtifyError = re.getMessage();
-                        } else {
-                            Process p = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
-                            if (p.isAlive()) p.destroy();
-
-                            ReqtifyData.reqtfyLanguageProcessMap.remove(reqtifyLang);
-                            ReqtifyData.reqtifyLanguagePortMap.remove(reqtifyLang);
-                            reqtifyError = ReqtifyData.utils.getLastLineOfFile(
-                                    ReqtifyData.tempDir + "reqtifyLog_" + reqtifyPort + ".log");
-                        }
+                        reqtifyError = re.getMessage();
                     }
                 } else {
                     scalarParams.add(param);
@@ -272,129 +283,91 @@ public class ReportGenerationPipelineStep extends Step {
 
         public ListBoxModel doFillModelReportItems() throws InterruptedException, IOException {
             ListBoxModel m = new ListBoxModel();
-            synchronized (ReqtifyData.class) {
-                try {
-                    String currentJob = "";
-                    reqtifyError = "";
-                    String currentWorkspace = "";
-                    Pattern pattern = Pattern.compile("job/(.*?)/pipeline-syntax/descriptorByName");
-                    Matcher matcher =
-                            pattern.matcher(Jenkins.get().getDescriptor().getDescriptorFullUrl());
-                    while (matcher.find()) {
-                        currentJob = matcher.group(1);
-                    }
-
-                    currentWorkspace = Utils.getWorkspacePath(currentJob);
-
-                    String reqtifyLang = "eng";
-                    Utils.initReqtifyProcess();
-                    int reqtifyPort = ReqtifyData.reqtifyLanguagePortMap.get(reqtifyLang);
-                    Process reqtifyProcess = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
+            try {
+                String currentJob = "";
+                reqtifyError = "";
+                String currentWorkspace = "";
+                Pattern pattern = Pattern.compile("job/(.*?)/pipeline-syntax/descriptorByName");
+                Matcher matcher =
+                        pattern.matcher(Jenkins.get().getDescriptor().getDescriptorFullUrl());
+                while (matcher.find()) {
+                    currentJob = matcher.group(1);
+                }
 
-                    String targetURLModels = "http://localhost:" + reqtifyPort + "/jenkins/getReportModels?";
-                    try {
-                        String openProjectUrl =
-                                "http://localhost:" + reqtifyPort + "/jenkins/openProject?dir=" + currentWorkspace;
-                        ReqtifyData.utils.executeGET(openProjectUrl, reqtifyProcess, false);
-                        JSONArray modelsResult =
-                                (JSONArray) ReqtifyData.utils.executeGET(targetURLModels, reqtifyProcess, false);
-                        Iterator<JSONObject> itr = modelsResult.iterator();
-                        // Models
-                        m.add("Select Report Model");
-                        while (itr.hasNext()) {
-                            JSONObject model = (JSONObject) itr.next();
-                            m.add(model.get("label").toString());
-                            // Report parameters
-                            JSONArray functionParamters = (JSONArray) model.get("parameters");
-                            functionParamterMap.put(model.get("name").toString(), functionParamters);
-                        }
+                currentWorkspace = Utils.getWorkspacePath(currentJob);
 
-                    } catch (ParseException ex) {
-                        Logger.getLogger(ReqtifyGenerateReport.class.getName()).log(Level.SEVERE, null, ex);
-                    } catch (ConnectException ce) {
-                        // Show some error
-                    } catch (ReqtifyException re) {
-                        if (re.getMessage().length() > 0) {
-                            reqtifyError = re.getMessage();
-                        } else {
-                            Process p = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
-                            if (p.isAlive()) p.destroy();
-
-                            ReqtifyData.reqtfyLanguageProcessMap.remove(reqtifyLang);
-                            ReqtifyData.reqtifyLanguagePortMap.remove(reqtifyLang);
-                            reqtifyError = ReqtifyData.utils.getLastLineOfFile(
-                                    ReqtifyData.tempDir + "reqtifyLog_" + reqtifyPort + ".log");
-                        }
+                String targetURLModels = "getReportModels?";
+                try {
+                    JSONArray modelsResult = (JSONArray)
+                            ReqtifyData.metadata.load(currentJob, currentWorkspace, targetURLModels, PAGE_REQUESTS);
+                    Iterator<JSONObject> itr = modelsResult.iterator();
+                    // Models
+                    m.add("Select Report Model");
+                    while (itr.hasNext()) {
+                        JSONObject model = (JSONObject) itr.next();
+                        m.add(model.get("label").toString());
+                        // Report parameters
+                        JSONArray functionParamters = (JSONArray) model.get("parameters");
+                        functionParamterMap.put(model.get("name").toString(), functionParamters);
                     }
-                } catch (IOException | AccessDeniedException e) {
-                }
 
-                return m;
+                } catch (ParseException ex) {
+                    Logger.getLogger(ReqtifyGenerateReport.class.getName()).log(Level.SEVERE, null, ex);
+                } catch (ConnectException ce) {
+                    // Show some error
+                } catch (ReqtifyException re) {
+                    reqtifyError = re.getMessage();
+                }
+            } catch (IOException | AccessDeniedException e) {
             }
+
+            return m;
         }
 
         public ListBoxModel doFillTemplateReportItems() throws IOException, InterruptedException {
             ListBoxModel m = new ListBoxModel();
-            synchronized (ReqtifyData.class) {
-                try {
-                    String currentJob = "";
-                    reqtifyError = "";
-                    String currentWorkspace = "";
-                    Pattern pattern = Pattern.compile("job/(.*?)/pipeline-syntax/descriptorByName");
-                    Matcher matcher =
-                            pattern.matcher(Jenkins.get().getDescriptor().getDescriptorFullUrl());
-                    while (matcher.find()) {
-                        currentJob = matcher.group(1);
-                    }
-
-                    currentWorkspace = Utils.getWorkspacePath(currentJob);
+            try {
+                String currentJob = "";
+                reqtifyError = "";
+                String currentWorkspace = "";
+                Pattern pattern = Pattern.compile("job/(.*?)/pipeline-syntax/descriptorByName");
+                Matcher matcher =
+                        pattern.matcher(Jenkins.get().getDescriptor().getDescriptorFullUrl());
+                while (matcher.find()) {
+                    currentJob = matcher.group(1);
+                }
 
-                    String reqtifyLang = "eng";
-                    Utils.initReqtifyProcess();
-                    int reqtifyPort = ReqtifyData.reqtifyLanguagePortMap.get(reqtifyLang);
-                    Process reqtifyProcess = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
+                currentWorkspace = Utils.getWorkspacePath(currentJob);
 
-                    String targetURLTemplates = "http://localhost:" + reqtifyPort + "/jenkins/getReportTemplates?";
-                    try {
-                        String openProjectUrl =
-                                "http://localhost:" + reqtifyPort + "/jenkins/openProject?dir=" + currentWorkspace;
-                        ReqtifyData.utils.executeGET(openProjectUrl, reqtifyProcess, false);
-                        JSONArray templatesResult =
-                                (JSONArray) ReqtifyData.utils.executeGET(targetURLTemplates, reqtifyProcess, false);
-
-                        // Templates
-                        Iterator<String> itr = templatesResult.iterator();
-                        m.add("Select Report Template");
-                        while (itr.hasNext()) {
-                            String template = itr.next();
-                            m.add(template);
-                        }
-                    } catch (ParseException ex) {
-                        Logger.getLogger(ReqtifyGenerateReport.class.getName()).log(Level.SEVERE, null, ex);
-                    } catch (ConnectException ce) {
-                        // Show some error
-                    } catch (ReqtifyException re) {
-                        if (re.getMessage().length() > 0) {
-                            reqtifyError = re.getMessage();
-                        } else {
-                            Process p = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
-                            if (p.isAlive()) p.destroy();
-
-                            ReqtifyData.reqtfyLanguageProcessMap.remove(reqtifyLang);
-                            ReqtifyData.reqtifyLanguagePortMap.remove(reqtifyLang);
-                            reqtifyError = ReqtifyData.utils.getLastLineOfFile(
-                                    ReqtifyData.tempDir + "reqtifyLog_" + reqtifyPort + ".log");
-                        }
+                String targetURLTemplates = "getReportTemplates?";
+                try {
+                    JSONArray templatesResult = (JSONArray)
+                            ReqtifyData.metadata.load(currentJob, currentWorkspace, targetURLTemplates, PAGE_REQUESTS);
+
+                    // Templates
+                    Iterator<String> itr = templatesResult.iterator();
+                    m.add("Select Report Template");
+                    while (itr.hasNext()) {
+                        String template = itr.next();
+                        m.add(template);
                     }
-                } catch (IOException | AccessDeniedException e) {
+                } catch (ParseException ex) {
+                    Logger.getLogger(ReqtifyGenerateReport.class.getName()).log(Level.SEVERE, null, ex);
+                } catch (ConnectException ce) {
+                    // Show some error
+                } catch (ReqtifyException re) {
+                    reqtifyError = re.getMessage();
                 }
-
-                return m;
+            } catch (IOException | AccessDeniedException e) {
             }
+
+            return m;
         }
     }
 
-    private static class ReportGenerationPipelineStepExecution extends SynchronousStepExecution<String> {
+    // Waiting for a lease or another build and sending the requests run off the CPS VM thread
+    private static class ReportGenerationPipelineStepExecution
+            extends SynchronousNonBlockingStepExecution<Map<String, Object>> {
         private static final long serialVersionUID = 1L;
 
         private final transient ReportGenerationPipelineStep step;
@@ -406,53 +379,63 @@ public class ReportGenerationPipelineStep extends Step {
 
         @Override
         @edu.umd.cs.findbugs.annotations.SuppressFBWarnings("SBSC_USE_STRINGBUFFER_CONCATENATION")
-        protected String run() throws Exception {
+        protected Map<String, Object> run() throws Exception {
             Run run = getContext().get(Run.class);
             TaskListener listener = getContext().get(TaskListener.class);
-            String reqtifyLang = "eng";
-            Process reqtifyProcess;
-            int reqtifyPort;
-            Utils.initReqtifyProcess();
-            reqtifyPort = ReqtifyData.reqtifyLanguagePortMap.get(reqtifyLang);
-            reqtifyProcess = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
+            // The flight key and the request sent are built from the same values
+            String nameReport = step.nameReport;
+            String modelReport = step.modelReport;
+            String templateReport = step.templateReport;
+            String[] reportArgumentList = step.reportArgumentList;
+            String currentWorkspace = Utils.getWorkspacePath(run.getParent().getName());
+            String reportFile = nameReport + "." + FilenameUtils.getExtension(templateReport);
+            FilePath report = new FilePath(new File(currentWorkspace, reportFile));
+            // Not a project input of the next builds
+            ReqtifyData.resultCache.registerOutput(report);
+            long start = System.nanoTime();
+            String reportArguments = ReqtifyFunctionCall.toArguments(reportArgumentList);
+            String reportRequest = "generateReport?" + "aReportModel="
+                    + URLEncoder.encode(modelReport, "UTF-8") + "&aReportTemplate="
+                    + URLEncoder.encode(templateReport, "UTF-8");
+
+            // Inside a reqtifySession block, reuse its instance, lease and open project
+            ReqtifySession enclosingSession = ReqtifySessionStep.getEnclosingSession(getContext());
+            // A build generating the same report on the same project content shares it. Steps holding
+            // the lease of a reqtifySession block do not wait for other builds, which may need a lease.
+            String flightKey = enclosingSession != null
+                    ? null
+                    : ReqtifySingleFlight.key(
+                            reportRequest + reportArguments + "&aFileOut=" + reportFile, currentWorkspace);
+            Object sharedReport = ReqtifyData.flights.await(flightKey, listener);
+            if (sharedReport != null) {
+                report.copyFrom(new ByteArrayInputStream((byte[]) sharedReport));
+                listener.getLogger().println("Report shared by another build written to " + report.getRemote());
+                return reportMetadata(report, start);
+            }
+            Object generatedReport = null;
+            ReqtifySession session;
+            try {
+                session = enclosingSession != null
+                        ? enclosingSession
+                        : new ReqtifySession(ReqtifyLane.BUILD, run.getParent().getFullName(), listener);
+            } catch (IOException | RuntimeException e) {
+                ReqtifyData.flights.land(flightKey, null);
+                throw e;
+            }
 
             try {
-                String currentWorkspace = Utils.getWorkspacePath(run.getParent().getName());
+                session.startTimeout(step.timeout);
                 // Open the project if it is first request that means if project is not opened
-                String openProjectUrl =
-                        "http://localhost:" + reqtifyPort + "/jenkins/openProject?dir=" + currentWorkspace;
-                ReqtifyData.utils.executeGET(openProjectUrl, reqtifyProcess, false);
-                String targetUrl = "http://localhost:" + reqtifyPort + "/jenkins/generateReport?" + "aReportModel="
-                        + URLEncoder.encode(modelReport, "UTF-8") + "&aReportTemplate="
-                        + URLEncoder.encode(templateReport, "UTF-8") + "&aFileOut="
-                        + currentWorkspace + "\\"
-                        + URLEncoder.encode(nameReport + "." + FilenameUtils.getExtension(templateReport), "UTF-8");
-
-                String arg1 = "";
-                String arg2 = "";
-                if (reportArgumentList != null && reportArgumentList.length > 0) {
-                    for (String reportArgumentList1 : reportArgumentList) {
-                        if (reportArgumentList1.startsWith("ns_")) {
-                            arg1 += reportArgumentList1.split("_")[1] + ",";
-                        } else {
-                            arg2 += reportArgumentList1 + ",";
-                        }
-                    }
-                    if (!arg1.isEmpty()) {
-                        targetUrl += "&arg1=";
-                        arg1 = arg1.substring(0, arg1.length() - 1);
-                        targetUrl += arg1;
-                    }
-                    if (!arg2.isEmpty()) {
-                        targetUrl += "&arg2=";
-                        arg2 = arg2.substring(0, arg2.length() - 1);
-                        targetUrl += arg2;
-                    }
-                }
-                ReqtifyData.utils.executeGET(targetUrl, reqtifyProcess, true);
+                session.openProject(currentWorkspace);
+                String targetUrl = reportRequest + "&aFileOut="
+                        + session.getReportOutputPath(currentWorkspace, reportFile) + reportArguments;
+                session.call(targetUrl, true);
+                session.collectReport(new FilePath(new File(currentWorkspace)), reportFile);
+                generatedReport = ReqtifyData.flights.reportContent(flightKey, report);
+                return reportMetadata(report, start);
             } catch (ParseException ex) {
                 Logger.getLogger(ReqtifyGenerateReport.class.getName()).log(Level.SEVERE, null, ex);
-            } catch (ConnectException e) {
+            } catch (ConnectException | ReqtifyTimeoutException e) {
                 listener.error(e.getMessage());
                 run.setResult(Result.FAILURE);
             } catch (ReqtifyException re) {
@@ -460,17 +443,27 @@ public class ReportGenerationPipelineStep extends Step {
                     listener.error(re.getMessage());
                     run.setResult(Result.FAILURE);
                 } else {
-                    Process p = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
-                    if (p.isAlive()) p.destroy();
-
-                    ReqtifyData.reqtfyLanguageProcessMap.remove(reqtifyLang);
-                    ReqtifyData.reqtifyLanguagePortMap.remove(reqtifyLang);
-                    listener.error(ReqtifyData.utils.getLastLineOfFile(
-                            ReqtifyData.tempDir + "reqtifyLog_" + reqtifyPort + ".log"));
+                    ReqtifyData.registry.retire(session.getInstance());
+                    listener.error(ReqtifyData.utils.getLastLineOfFile(session.getInstance().getLogFile()));
                     run.setResult(Result.FAILURE);
                 }
+            } finally {
+                if (enclosingSession == null) {
+                    session.close();
+                }
+                ReqtifyData.flights.land(flightKey, generatedReport);
             }
-            return "";
+            return null;
+        }
+
+        // Report metadata returned to the pipeline
+        private static Map<String, Object> reportMetadata(FilePath report, long start)
+                throws IOException, InterruptedException {
+            Map<String, Object> metadata = new LinkedHashMap<>();
+            metadata.put("path", report.getRemote());
+            metadata.put("size", report.exists() ? report.length() : -1L);
+            metadata.put("duration", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return metadata;
         }
     }
 }
@@ -0,0 +1,119 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounds the number of requests in flight on a Reqtify instance. Waiting requests are queued per job
+ * and jobs are served round-robin, so a burst of requests from one job cannot starve the others.
+ *
+ * @author Dassault Systèmes
+ */
+public class ReqtifyAdmissionQueue {
+
+    private final int maxInFlight;
+    private int inFlight;
+    // Iteration order is the round-robin order, a served job moves to the back
+    private final Map<String, Deque<Ticket>> waiting = new LinkedHashMap<>();
+
+    private static class Ticket {
+        private boolean granted;
+    }
+
+    public ReqtifyAdmissionQueue(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Waits until the request may be sent.
+     *
+     * @return time spent waiting, in milliseconds
+     */
+    public synchronized long acquire(String jobKey) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        if (inFlight < maxInFlight && waiting.isEmpty()) {
+            inFlight++;
+            return 0;
+        }
+        Ticket ticket = new Ticket();
+        waiting.computeIfAbsent(jobKey, k -> new ArrayDeque<>()).add(ticket);
+        try {
+            while (!ticket.granted) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            if (ticket.granted) {
+                release();
+            } else {
+                Deque<Ticket> jobQueue = waiting.get(jobKey);
+                jobQueue.remove(ticket);
+                if (jobQueue.isEmpty()) {
+                    waiting.remove(jobKey);
+                }
+            }
+            throw e;
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    public synchronized void release() {
+        inFlight--;
+        dispatch();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getWaiting() {
+        int count = 0;
+        for (Deque<Ticket> jobQueue : waiting.values()) {
+            count += jobQueue.size();
+        }
+        return count;
+    }
+
+    private void dispatch() {
+        while (inFlight < maxInFlight && !waiting.isEmpty()) {
+            Iterator<Map.Entry<String, Deque<Ticket>>> it = waiting.entrySet().iterator();
+            Map.Entry<String, Deque<Ticket>> next = it.next();
+            it.remove();
+            next.getValue().poll().granted = true;
+            inFlight++;
+            if (!next.getValue().isEmpty()) {
+                waiting.put(next.getKey(), next.getValue());
+            }
+        }
+        notifyAll();
+    }
+}
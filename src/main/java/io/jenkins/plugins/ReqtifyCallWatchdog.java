@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import jenkins.util.Timer;
+
+/**
+ * Watches a request sent to Reqtify and disconnects it when the thread sending it is interrupted, as
+ * happens when the build is aborted, or when the deadline of the build step has passed.
+ * {@link HttpURLConnection} ignores interrupts while waiting for the answer, so the executor would
+ * otherwise stay blocked until Reqtify answers.
+ *
+ * @author Dassault Systèmes
+ */
+class ReqtifyCallWatchdog implements AutoCloseable {
+
+    private static final long CHECK_PERIOD = 500;
+
+    private final Thread thread = Thread.currentThread();
+    private final HttpURLConnection connection;
+    private final long deadline;
+    private final ScheduledFuture<?> check;
+    private volatile boolean aborted;
+    private volatile boolean expired;
+
+    /**
+     * @param deadline time in milliseconds after which the request is abandoned, or 0 for none
+     */
+    ReqtifyCallWatchdog(HttpURLConnection connection, long deadline) {
+        this.connection = connection;
+        this.deadline = deadline;
+        check = Timer.get().scheduleWithFixedDelay(this::check, CHECK_PERIOD, CHECK_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    private void check() {
+        if (thread.isInterrupted()) {
+            aborted = true;
+        } else if (deadline > 0 && System.currentTimeMillis() >= deadline) {
+            expired = true;
+        } else {
+            return;
+        }
+        // Closes the socket, the blocked read then fails
+        connection.disconnect();
+    }
+
+    /**
+     * Whether the request was disconnected because its thread was interrupted.
+     */
+    boolean isAborted() {
+        return aborted || thread.isInterrupted();
+    }
+
+    /**
+     * Whether the request was disconnected, or timed out, because the deadline has passed.
+     */
+    boolean isExpired() {
+        return expired || (deadline > 0 && System.currentTimeMillis() >= deadline);
+    }
+
+    @Override
+    public void close() {
+        check.cancel(false);
+    }
+}
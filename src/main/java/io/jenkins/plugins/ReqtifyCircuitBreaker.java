@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Circuit breaker guarding a single Reqtify instance. It opens after a number of consecutive failed
+ * or too slow requests, rejects requests while open, then lets a single probe through to decide
+ * whether to close again.
+ *
+ * @author Dassault Systèmes
+ */
+public class ReqtifyCircuitBreaker {
+
+    // Listing requests answer quickly, opening a large project or generating a report may take minutes
+    private static final Set<String> LISTING_ENDPOINTS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "getFunctions",
+            "getFunctionParameterValues",
+            "getReportModels",
+            "getReportTemplates",
+            "getReportParameterValues",
+            "getProjectFilterNames")));
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long latencyThreshold;
+    private final long openDuration;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    public ReqtifyCircuitBreaker(int failureThreshold, long latencyThreshold, long openDuration) {
+        this.failureThreshold = failureThreshold;
+        this.latencyThreshold = latencyThreshold;
+        this.openDuration = openDuration;
+    }
+
+    public static ReqtifyCircuitBreaker fromConfiguration() {
+        ReqtifyGlobalConfiguration config = ReqtifyGlobalConfiguration.get();
+        return new ReqtifyCircuitBreaker(
+                config.getBreakerFailureThreshold(),
+                config.getBreakerLatencyThreshold(),
+                config.getBreakerOpenDuration() * 1000L);
+    }
+
+    /**
+     * Whether a request counts as failed when slower than the latency threshold: only listing requests do.
+     */
+    public static boolean isLatencySensitive(String targetURL) {
+        return LISTING_ENDPOINTS.contains(Utils.getEndpoint(targetURL));
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Returns whether requests are rejected until the open duration has elapsed.
+     */
+    public synchronized boolean isOpen() {
+        return state == State.OPEN && System.currentTimeMillis() - openedAt < openDuration;
+    }
+
+    /**
+     * @return true if the request may be sent, false if it must fail fast
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openDuration) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+        }
+        if (probeInFlight) {
+            return false;
+        }
+        probeInFlight = true;
+        return true;
+    }
+
+    /**
+     * Records the outcome of a request admitted by {@link #tryAcquire()}.
+     *
+     * @param failed true if Reqtify could not be reached or did not answer
+     * @param elapsed duration of the request in milliseconds
+     * @param latencySensitive true if the request counts as failed when slower than the latency threshold
+     */
+    public synchronized void onComplete(boolean failed, long elapsed, boolean latencySensitive) {
+        probeInFlight = false;
+        if (!failed && latencySensitive && latencyThreshold > 0 && elapsed > latencyThreshold) {
+            failed = true;
+        }
+        if (!failed) {
+            consecutiveFailures = 0;
+            state = State.CLOSED;
+            return;
+        }
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized long getRemainingOpenTime() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, openDuration - (System.currentTimeMillis() - openedAt));
+    }
+}
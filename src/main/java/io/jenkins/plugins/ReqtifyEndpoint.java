@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Reqtify server started outside of the plugin, on this or another host, which builds can send
+ * requests to alongside the locally launched instances.
+ *
+ * @author Dassault Systèmes
+ */
+public class ReqtifyEndpoint extends AbstractDescribableImpl<ReqtifyEndpoint> {
+
+    private final String host;
+    private final int port;
+    private final int capacity;
+
+    /**
+     * @param capacity number of requests the server handles at the same time
+     */
+    @DataBoundConstructor
+    public ReqtifyEndpoint(String host, int port, int capacity) {
+        this.host = host.trim();
+        this.port = port;
+        this.capacity = Math.max(1, capacity);
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Key of the endpoint in {@link ReqtifyInstanceRegistry}.
+     */
+    public String getKey() {
+        return "remote-" + host + ":" + port;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<ReqtifyEndpoint> {
+
+        @Override
+        public String getDisplayName() {
+            return "Endpoint";
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * One function invocation of the {@code reqtifyFunctions} step.
+ *
+ * @author Dassault Systèmes
+ */
+public class ReqtifyFunctionCall extends AbstractDescribableImpl<ReqtifyFunctionCall> {
+
+    private final String functionName;
+    private String[] argumentList;
+
+    @DataBoundConstructor
+    public ReqtifyFunctionCall(String functionName) {
+        this.functionName = functionName;
+    }
+
+    public String getFunctionName() {
+        return functionName;
+    }
+
+    @edu.umd.cs.findbugs.annotations.SuppressFBWarnings("EI_EXPOSE_REP")
+    public String[] getArgumentList() {
+        return argumentList;
+    }
+
+    /**
+     * @param argumentList arguments of the function, non-scalar values prefixed with {@code ns_}
+     */
+    @edu.umd.cs.findbugs.annotations.SuppressFBWarnings("EI_EXPOSE_REP2")
+    @DataBoundSetter
+    public void setArgumentList(String[] argumentList) {
+        this.argumentList = argumentList;
+    }
+
+    /**
+     * Returns the request calling the function, in the form expected by {@link ReqtifySession#call}.
+     */
+    public String toRequest() {
+        return toRequest(functionName, argumentList);
+    }
+
+    static String toRequest(String functionName, String[] argumentList) {
+        String arguments = toArguments(argumentList);
+        // arg1 directly follows the '?'
+        return functionName + "?" + (arguments.startsWith("&arg1=") ? arguments.substring(1) : arguments);
+    }
+
+    /**
+     * Returns the arguments as {@code &arg1=...&arg2=...}, with the non-scalar ids in {@code arg1} and the
+     * scalar values in {@code arg2}, or an empty string without arguments. Built in one pass, as a
+     * selection may hold thousands of ids.
+     */
+    static String toArguments(String[] argumentList) {
+        if (argumentList == null || argumentList.length == 0) {
+            return "";
+        }
+        StringBuilder arg1 = new StringBuilder();
+        StringBuilder arg2 = new StringBuilder();
+        for (String argument : argumentList) {
+            if (argument.startsWith("ns_")) {
+                arg1.append(arg1.length() > 0 ? "," : "&arg1=").append(argument.split("_")[1]);
+            } else {
+                arg2.append(arg2.length() > 0 ? "," : "&arg2=").append(argument);
+            }
+        }
+        return arg1.append(arg2).toString();
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<ReqtifyFunctionCall> {
+
+        @Override
+        public String getDisplayName() {
+            return "Function call";
+        }
+    }
+}
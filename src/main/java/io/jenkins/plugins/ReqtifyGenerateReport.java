@@ -34,6 +34,7 @@ import hudson.model.TaskListener;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
 import hudson.util.ListBoxModel;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.ConnectException;
@@ -65,6 +66,7 @@ public class ReqtifyGenerateReport extends Builder implements SimpleBuildStep {
     private String[] reportArgumentList;
     private String projectFilter;
     private String lang;
+    private int timeout;
     private static final ResourceBundle BUNDLE = ResourceBundle.getBundle("io.jenkins.plugins.Messages");
 
     public ReqtifyGenerateReport() {
@@ -132,6 +134,18 @@ public class ReqtifyGenerateReport extends Builder implements SimpleBuildStep {
         this.projectFilter = projectFilter;
     }
 
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout minutes after which the requests of the step fail, 0 for the global default
+     */
+    @DataBoundSetter
+    public void setTimeout(int timeout) {
+        this.timeout = Math.max(0, timeout);
+    }
+
     @Override
     public DescriptorImpl getDescriptor() {
         return (DescriptorImpl) super.getDescriptor();
@@ -151,56 +165,58 @@ public class ReqtifyGenerateReport extends Builder implements SimpleBuildStep {
     @Override
     public void perform(Run<?, ?> run, FilePath workspace, Launcher launcher, TaskListener listener)
             throws InterruptedException, IOException {
-        String reqtifyLang = "eng";
-        Process reqtifyProcess;
-        int reqtifyPort;
-        Utils.initReqtifyProcess();
-        reqtifyPort = ReqtifyData.reqtifyLanguagePortMap.get(reqtifyLang);
-        reqtifyProcess = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
+        String currentWorkspace = Utils.getWorkspacePath(run.getParent().getName());
+        String reportFile = this.nameReport + "." + FilenameUtils.getExtension(this.templateReport);
+        String reportArguments = ReqtifyFunctionCall.toArguments(reportArgumentList);
+        String reportRequest = "generateReport?" + "aReportModel="
+                + URLEncoder.encode(this.modelReport, "UTF-8") + "&aReportTemplate="
+                + URLEncoder.encode(this.templateReport, "UTF-8");
+
+        // A build generating the same report on the same project content shares it
+        String flightKey = ReqtifySingleFlight.key(
+                reportRequest + reportArguments + "&afilterName=" + this.projectFilter + "&aFileOut=" + reportFile,
+                currentWorkspace);
+        // Not a project input of the next builds
+        ReqtifyData.resultCache.registerOutput(workspace.child(reportFile));
+        Object sharedReport = ReqtifyData.flights.await(flightKey, listener);
+        if (sharedReport != null) {
+            FilePath report = workspace.child(reportFile);
+            report.copyFrom(new ByteArrayInputStream((byte[]) sharedReport));
+            listener.getLogger().println("Report shared by another build written to " + report.getRemote());
+            return;
+        }
+        Object generatedReport = null;
+        ReqtifySession session;
+        try {
+            session = new ReqtifySession(ReqtifyLane.BUILD, run.getParent().getFullName(), listener);
+        } catch (ConnectException e) {
+            ReqtifyData.flights.land(flightKey, null);
+            listener.error(e.getMessage());
+            run.setResult(Result.FAILURE);
+            return;
+        } catch (IOException | RuntimeException e) {
+            ReqtifyData.flights.land(flightKey, null);
+            throw e;
+        }
         try {
+            session.startTimeout(this.timeout);
             // Open the project if it is first request that means if project is not opened
-            String currentWorkspace = Utils.getWorkspacePath(run.getParent().getName());
-            String openProjectUrl = "http://localhost:" + reqtifyPort + "/jenkins/openProject?dir=" + currentWorkspace;
-            ReqtifyData.utils.executeGET(openProjectUrl, reqtifyProcess, false);
+            session.openProject(currentWorkspace);
             // set project filter name Bug-207442
             if (!(this.projectFilter.isEmpty())) {
-                String targetUrl = "http://localhost:" + reqtifyPort + "/jenkins/setProjectFilterName?afilterName="
+                String targetUrl = "setProjectFilterName?afilterName="
                         + URLEncoder.encode(this.projectFilter, "UTF-8");
-                ReqtifyData.utils.executeGET(targetUrl, reqtifyProcess, true);
+                session.call(targetUrl, true);
             }
 
-            String targetUrl = "http://localhost:" + reqtifyPort + "/jenkins/generateReport?" + "aReportModel="
-                    + URLEncoder.encode(this.modelReport, "UTF-8") + "&aReportTemplate="
-                    + URLEncoder.encode(this.templateReport, "UTF-8") + "&aFileOut="
-                    + workspace.getRemote() + "\\"
-                    + URLEncoder.encode(
-                            this.nameReport + "." + FilenameUtils.getExtension(this.templateReport), "UTF-8");
-
-            String arg1 = "";
-            String arg2 = "";
-            if (reportArgumentList != null && reportArgumentList.length > 0) {
-                for (String reportArgumentList1 : reportArgumentList) {
-                    if (reportArgumentList1.startsWith("ns_")) {
-                        arg1 += reportArgumentList1.split("_")[1] + ",";
-                    } else {
-                        arg2 += reportArgumentList1 + ",";
-                    }
-                }
-                if (!arg1.isEmpty()) {
-                    targetUrl += "&arg1=";
-                    arg1 = arg1.substring(0, arg1.length() - 1);
-                    targetUrl += arg1;
-                }
-                if (!arg2.isEmpty()) {
-                    targetUrl += "&arg2=";
-                    arg2 = arg2.substring(0, arg2.length() - 1);
-                    targetUrl += arg2;
-                }
-            }
-            ReqtifyData.utils.executeGET(targetUrl, reqtifyProcess, true);
+            String targetUrl = reportRequest + "&aFileOut="
+                    + session.getReportOutputPath(workspace.getRemote(), reportFile) + reportArguments;
+            session.call(targetUrl, true);
+            session.collectReport(workspace, reportFile);
+            generatedReport = ReqtifyData.flights.reportContent(flightKey, workspace.child(reportFile));
         } catch (ParseException ex) {
             Logger.getLogger(ReqtifyGenerateReport.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (ConnectException e) {
+        } catch (ConnectException | ReqtifyTimeoutException e) {
             listener.error(e.getMessage());
             run.setResult(Result.FAILURE);
         } catch (ReqtifyException re) {
@@ -208,20 +224,21 @@ public class ReqtifyGenerateReport extends Builder implements SimpleBuildStep {
                 listener.error(re.getMessage());
                 run.setResult(Result.FAILURE);
             } else {
-                Process p = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
-                if (p.isAlive()) p.destroy();
-
-                ReqtifyData.reqtfyLanguageProcessMap.remove(reqtifyLang);
-                ReqtifyData.reqtifyLanguagePortMap.remove(reqtifyLang);
-                listener.error(ReqtifyData.utils.getLastLineOfFile(
-                        ReqtifyData.tempDir + "reqtifyLog_" + reqtifyPort + ".log"));
+                ReqtifyData.registry.retire(session.getInstance());
+                listener.error(ReqtifyData.utils.getLastLineOfFile(session.getInstance().getLogFile()));
                 run.setResult(Result.FAILURE);
             }
+        } finally {
+            session.close();
+            ReqtifyData.flights.land(flightKey, generatedReport);
         }
     }
 
     @Extension
     public static class DescriptorImpl extends BuildStepDescriptor<Builder> {
+        // Lists of the dropdowns of the configuration page, loaded together
+        private static final List<String> PAGE_REQUESTS =
+                Arrays.asList("getReportModels?", "getReportTemplates?", "getProjectFilterNames?");
         private String reqtifyError;
         private final Map<String, JSONArray> functionParamterMap;
 
@@ -241,192 +258,132 @@ public class ReqtifyGenerateReport extends Builder implements SimpleBuildStep {
 
         private ListBoxModel getReportModels() {
             ListBoxModel m = new ListBoxModel();
-            synchronized (ReqtifyData.class) {
-                try {
-                    String currentJob = "";
-                    reqtifyError = "";
-                    String currentWorkspace = "";
-                    Pattern pattern = Pattern.compile("job/(.*?)/descriptorByName");
-                    Matcher matcher =
-                            pattern.matcher(Jenkins.get().getDescriptor().getDescriptorFullUrl());
-                    while (matcher.find()) {
-                        currentJob = matcher.group(1);
-                    }
-
-                    currentWorkspace = Utils.getWorkspacePath(currentJob);
-
-                    String reqtifyLang = "eng";
-                    Utils.initReqtifyProcess();
-                    int reqtifyPort = ReqtifyData.reqtifyLanguagePortMap.get(reqtifyLang);
-                    Process reqtifyProcess = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
+            try {
+                String currentJob = "";
+                reqtifyError = "";
+                String currentWorkspace = "";
+                Pattern pattern = Pattern.compile("job/(.*?)/descriptorByName");
+                Matcher matcher =
+                        pattern.matcher(Jenkins.get().getDescriptor().getDescriptorFullUrl());
+                while (matcher.find()) {
+                    currentJob = matcher.group(1);
+                }
 
-                    String targetURLModels = "http://localhost:" + reqtifyPort + "/jenkins/getReportModels?";
-                    try {
-                        String openProjectUrl =
-                                "http://localhost:" + reqtifyPort + "/jenkins/openProject?dir=" + currentWorkspace;
-                        ReqtifyData.utils.executeGET(openProjectUrl, reqtifyProcess, false);
-                        JSONArray modelsResult =
-                                (JSONArray) ReqtifyData.utils.executeGET(targetURLModels, reqtifyProcess, false);
-                        Iterator<JSONObject> itr = modelsResult.iterator();
-                        // Models
-                        m.add("Select Report Model");
-                        while (itr.hasNext()) {
-                            JSONObject model = (JSONObject) itr.next();
-                            m.add(model.get("label").toString());
-                            // Report parameters
-                            JSONArray functionParamters = (JSONArray) model.get("parameters");
-                            functionParamterMap.put(model.get("name").toString(), functionParamters);
-                        }
+                currentWorkspace = Utils.getWorkspacePath(currentJob);
 
-                    } catch (ParseException ex) {
-                        Logger.getLogger(ReqtifyGenerateReport.class.getName()).log(Level.SEVERE, null, ex);
-                    } catch (ConnectException ce) {
-                        // Show some error
-                    } catch (ReqtifyException re) {
-                        if (re.getMessage().length() > 0) {
-                            reqtifyError = re.getMessage();
-                        } else {
-                            Process p = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
-                            if (p.isAlive()) p.destroy();
-
-                            ReqtifyData.reqtfyLanguageProcessMap.remove(reqtifyLang);
-                            ReqtifyData.reqtifyLanguagePortMap.remove(reqtifyLang);
-                            reqtifyError = ReqtifyData.utils.getLastLineOfFile(
-                                    ReqtifyData.tempDir + "reqtifyLog_" + reqtifyPort + ".log");
-                        }
+                String targetURLModels = "getReportModels?";
+                try {
+                    JSONArray modelsResult = (JSONArray)
+                            ReqtifyData.metadata.load(currentJob, currentWorkspace, targetURLModels, PAGE_REQUESTS);
+                    Iterator<JSONObject> itr = modelsResult.iterator();
+                    // Models
+                    m.add("Select Report Model");
+                    while (itr.hasNext()) {
+                        JSONObject model = (JSONObject) itr.next();
+                        m.add(model.get("label").toString());
+                        // Report parameters
+                        JSONArray functionParamters = (JSONArray) model.get("parameters");
+                        functionParamterMap.put(model.get("name").toString(), functionParamters);
                     }
-                } catch (IOException | AccessDeniedException e) {
-                }
 
-                return m;
+                } catch (ParseException ex) {
+                    Logger.getLogger(ReqtifyGenerateReport.class.getName()).log(Level.SEVERE, null, ex);
+                } catch (ConnectException ce) {
+                    // Show some error
+                } catch (ReqtifyException re) {
+                    reqtifyError = re.getMessage();
+                }
+            } catch (IOException | AccessDeniedException e) {
             }
+
+            return m;
         }
 
         private ListBoxModel getReportTemplates() {
             ListBoxModel m = new ListBoxModel();
-            synchronized (ReqtifyData.class) {
-                try {
-                    String currentJob = "";
-                    reqtifyError = "";
-                    String currentWorkspace = "";
-                    Pattern pattern = Pattern.compile("job/(.*?)/descriptorByName");
-                    Matcher matcher =
-                            pattern.matcher(Jenkins.get().getDescriptor().getDescriptorFullUrl());
-                    while (matcher.find()) {
-                        currentJob = matcher.group(1);
-                    }
-
-                    currentWorkspace = Utils.getWorkspacePath(currentJob);
+            try {
+                String currentJob = "";
+                reqtifyError = "";
+                String currentWorkspace = "";
+                Pattern pattern = Pattern.compile("job/(.*?)/descriptorByName");
+                Matcher matcher =
+                        pattern.matcher(Jenkins.get().getDescriptor().getDescriptorFullUrl());
+                while (matcher.find()) {
+                    currentJob = matcher.group(1);
+                }
 
-                    String reqtifyLang = "eng";
-                    Utils.initReqtifyProcess();
-                    int reqtifyPort = ReqtifyData.reqtifyLanguagePortMap.get(reqtifyLang);
-                    Process reqtifyProcess = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
+                currentWorkspace = Utils.getWorkspacePath(currentJob);
 
-                    String targetURLTemplates = "http://localhost:" + reqtifyPort + "/jenkins/getReportTemplates?";
-                    try {
-                        String openProjectUrl =
-                                "http://localhost:" + reqtifyPort + "/jenkins/openProject?dir=" + currentWorkspace;
-                        ReqtifyData.utils.executeGET(openProjectUrl, reqtifyProcess, false);
-                        JSONArray templatesResult =
-                                (JSONArray) ReqtifyData.utils.executeGET(targetURLTemplates, reqtifyProcess, false);
-
-                        // Templates
-                        Iterator<String> itr = templatesResult.iterator();
-                        m.add("Select Report Template");
-                        while (itr.hasNext()) {
-                            String template = itr.next();
-                            m.add(template);
-                        }
-                    } catch (ParseException ex) {
-                        Logger.getLogger(ReqtifyGenerateReport.class.getName()).log(Level.SEVERE, null, ex);
-                    } catch (ConnectException ce) {
-                        // Show some error
-                    } catch (ReqtifyException re) {
-                        if (re.getMessage().length() > 0) {
-                            reqtifyError = re.getMessage();
-                        } else {
-                            Process p = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
-                            if (p.isAlive()) p.destroy();
-
-                            ReqtifyData.reqtfyLanguageProcessMap.remove(reqtifyLang);
-                            ReqtifyData.reqtifyLanguagePortMap.remove(reqtifyLang);
-                            reqtifyError = ReqtifyData.utils.getLastLineOfFile(
-                                    ReqtifyData.tempDir + "reqtifyLog_" + reqtifyPort + ".log");
-                        }
+                String targetURLTemplates = "getReportTemplates?";
+                try {
+                    JSONArray templatesResult = (JSONArray)
+                            ReqtifyData.metadata.load(currentJob, currentWorkspace, targetURLTemplates, PAGE_REQUESTS);
+
+                    // Templates
+                    Iterator<String> itr = templatesResult.iterator();
+                    m.add("Select Report Template");
+                    while (itr.hasNext()) {
+                        String template = itr.next();
+                        m.add(template);
                     }
-                } catch (IOException | AccessDeniedException e) {
+                } catch (ParseException ex) {
+                    Logger.getLogger(ReqtifyGenerateReport.class.getName()).log(Level.SEVERE, null, ex);
+                } catch (ConnectException ce) {
+                    // Show some error
+                } catch (ReqtifyException re) {
+                    reqtifyError = re.getMessage();
                 }
-
-                return m;
+            } catch (IOException | AccessDeniedException e) {
             }
+
+            return m;
         }
         // get project filter name Bug-207442
         private ListBoxModel getProjectFilters() {
             ListBoxModel m = new ListBoxModel();
-            synchronized (ReqtifyData.class) {
-                try {
-                    String currentJob = "";
-                    reqtifyError = "";
-                    String currentWorkspace = "";
-                    Pattern pattern = Pattern.compile("job/(.*?)/descriptorByName");
-                    Matcher matcher =
-                            pattern.matcher(Jenkins.get().getDescriptor().getDescriptorFullUrl());
-                    while (matcher.find()) {
-                        currentJob = matcher.group(1);
-                    }
-
-                    currentWorkspace = Utils.getWorkspacePath(currentJob);
+            try {
+                String currentJob = "";
+                reqtifyError = "";
+                String currentWorkspace = "";
+                Pattern pattern = Pattern.compile("job/(.*?)/descriptorByName");
+                Matcher matcher =
+                        pattern.matcher(Jenkins.get().getDescriptor().getDescriptorFullUrl());
+                while (matcher.find()) {
+                    currentJob = matcher.group(1);
+                }
 
-                    String reqtifyLang = "eng";
-                    Utils.initReqtifyProcess();
-                    int reqtifyPort = ReqtifyData.reqtifyLanguagePortMap.get(reqtifyLang);
-                    Process reqtifyProcess = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
+                currentWorkspace = Utils.getWorkspacePath(currentJob);
 
-                    String targetURLTemplates = "http://localhost:" + reqtifyPort + "/jenkins/getProjectFilterNames?";
-                    try {
-                        String openProjectUrl =
-                                "http://localhost:" + reqtifyPort + "/jenkins/openProject?dir=" + currentWorkspace;
-                        ReqtifyData.utils.executeGET(openProjectUrl, reqtifyProcess, false);
-                        JSONArray templatesResult =
-                                (JSONArray) ReqtifyData.utils.executeGET(targetURLTemplates, reqtifyProcess, false);
-                        //                        JSONArray templatesResult = new JSONArray();
-                        //
-                        //                        // Adding elements to the JSONArray
-                        //                        templatesResult.add("no filter");
-                        //                        templatesResult.add("Software reqs");
-                        //                        templatesResult.add("Tests Passed");
-                        //                        templatesResult.add("Tests Failed");
-                        //                        templatesResult.add("Non Tested");
-
-                        Iterator<String> itr = templatesResult.iterator();
-                        m.add(new ListBoxModel.Option("Select Project Filter", "", true));
-                        while (itr.hasNext()) {
-                            String template = itr.next();
-                            m.add(template);
-                        }
-                    } catch (ParseException ex) {
-                        Logger.getLogger(ReqtifyGenerateReport.class.getName()).log(Level.SEVERE, null, ex);
-                    } catch (ConnectException ce) {
-                        // Show some error
-                    } catch (ReqtifyException re) {
-                        if (re.getMessage().length() > 0) {
-                            reqtifyError = re.getMessage();
-                        } else {
-                            Process p = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
-                            if (p.isAlive()) p.destroy();
-
-                            ReqtifyData.reqtfyLanguageProcessMap.remove(reqtifyLang);
-                            ReqtifyData.reqtifyLanguagePortMap.remove(reqtifyLang);
-                            reqtifyError = ReqtifyData.utils.getLastLineOfFile(
-                                    ReqtifyData.tempDir + "reqtifyLog_" + reqtifyPort + ".log");
-                        }
+                String targetURLTemplates = "getProjectFilterNames?";
+                try {
+                    JSONArray templatesResult = (JSONArray)
+                            ReqtifyData.metadata.load(currentJob, currentWorkspace, targetURLTemplates, PAGE_REQUESTS);
+                    //                        JSONArray templatesResult = new JSONArray();
+                    //
+                    //                        // Adding elements to the JSONArray
+                    //                        templatesResult.add("no filter");
+                    //                        templatesResult.add("Software reqs");
+                    //                        templatesResult.add("Tests Passed");
+                    //                        templatesResult.add("Tests Failed");
+                    //                        templatesResult.add("Non Tested");
+
+                    Iterator<String> itr = templatesResult.iterator();
+                    m.add(new ListBoxModel.Option("Select Project Filter", "", true));
+                    while (itr.hasNext()) {
+                        String template = itr.next();
+                        m.add(template);
                     }
-                } catch (IOException | AccessDeniedException e) {
+                } catch (ParseException ex) {
+                    Logger.getLogger(ReqtifyGenerateReport.class.getName()).log(Level.SEVERE, null, ex);
+                } catch (ConnectException ce) {
+                    // Show some error
+                } catch (ReqtifyException re) {
+                    reqtifyError = re.getMessage();
                 }
-
-                return m;
+            } catch (IOException | AccessDeniedException e) {
             }
+
+            return m;
         }
 
         @Override
@@ -444,9 +401,12 @@ public class ReqtifyGenerateReport extends Builder implements SimpleBuildStep {
         public List<String> renderReportParamUI(String functionName, String currentJob) {
             reqtifyError = "";
             List<String> htmlList = new ArrayList<>();
-            String reqtifyLang = "eng";
-            Process reqtifyProcess = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
-            int reqtifyPort = ReqtifyData.reqtifyLanguagePortMap.get(reqtifyLang);
+            String currentWorkspace;
+            try {
+                currentWorkspace = Utils.getWorkspacePath(currentJob);
+            } catch (IOException e) {
+                return htmlList;
+            }
             JSONArray functionParameters;
             do {
                 functionParameters = functionParamterMap.get(functionName);
@@ -481,11 +441,11 @@ public class ReqtifyGenerateReport extends Builder implements SimpleBuildStep {
                 boolean isScalar = false;
                 if (param.containsKey("isScalar")) isScalar = ((boolean) param.get("isScalar"));
                 if (!isScalar) {
-                    String getFunctionParamValueURL = "http://localhost:" + reqtifyPort
-                            + "/jenkins/getReportParameterValues?functionName=" + functionName + "&paramIndex=" + index;
+                    String getFunctionParamValueURL =
+                            "getReportParameterValues?functionName=" + functionName + "&paramIndex=" + index;
                     try {
                         JSONArray paramValueResult = (JSONArray)
-                                ReqtifyData.utils.executeGET(getFunctionParamValueURL, reqtifyProcess, false);
+                                ReqtifyData.metadata.load(currentJob, currentWorkspace, getFunctionParamValueURL);
                         if (!paramValueResult.isEmpty()) {
                             String html = "<div class=\"report-param\">"
                                     + param.get("name").toString()
@@ -517,17 +477,7 @@ public class ReqtifyGenerateReport extends Builder implements SimpleBuildStep {
                     } catch (ParseException | IOException ex) {
                         Logger.getLogger(CallFunction.class.getName()).log(Level.SEVERE, null, ex);
                     } catch (ReqtifyException re) {
-                        if (re.getMessage().length() > 0) {
-                            reqtifyError = re.getMessage();
-                        } else {
-                            Process p = ReqtifyData.reqtfyLanguageProcessMap.get(reqtifyLang);
-                            if (p.isAlive()) p.destroy();
-
-                            ReqtifyData.reqtfyLanguageProcessMap.remove(reqtifyLang);
-                            ReqtifyData.reqtifyLanguagePortMap.remove(reqtifyLang);
-                            reqtifyError = ReqtifyData.utils.getLastLineOfFile(
-                                    ReqtifyData.tempDir + "reqtifyLog_" + reqtifyPort + ".log");
-                        }
+                        reqtifyError = re.getMessage();
                     }
                 } else {
                     scalarParams.add(param);
@@ -0,0 +1,377 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.util.FormValidation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import jenkins.model.GlobalConfiguration;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Global settings controlling how the plugin launches and talks to Reqtify.
+ *
+ * @author Dassault Systèmes
+ */
+@Extension
+@Symbol("reqtify")
+public class ReqtifyGlobalConfiguration extends GlobalConfiguration {
+
+    private int startupTimeout = 60;
+    private int retryMaxAttempts = 5;
+    private long retryInitialDelay = 200;
+    private long retryMaxDelay = 5000;
+    private int breakerFailureThreshold = 5;
+    private long breakerLatencyThreshold = 10000;
+    private int breakerOpenDuration = 30;
+    private boolean failoverEnabled;
+    private int failoverMaxAttempts = 1;
+    private int launchBackoffInitial = 5;
+    private int launchBackoffMax = 300;
+    private int interactiveInstances;
+    private int interactiveMaxConcurrentRequests = 2;
+    private int buildInstances = 1;
+    private int buildMaxConcurrentRequests = 2;
+    private boolean queueBuilds;
+    private List<ReqtifyQuota> quotas = new ArrayList<>();
+    private List<ReqtifyEndpoint> endpoints = new ArrayList<>();
+    private String sharedReportDirectory = "";
+    private int resultCacheSize = 200;
+    private String resultCacheInputs = "";
+    private boolean shareIdenticalRequests;
+    private int stepTimeout;
+    private int adaptiveTimeoutFloor = 10;
+    private int adaptiveTimeoutCeiling = 7200;
+    private int maxQueryLength;
+
+    public ReqtifyGlobalConfiguration() {
+        load();
+    }
+
+    public static ReqtifyGlobalConfiguration get() {
+        return ExtensionList.lookupSingleton(ReqtifyGlobalConfiguration.class);
+    }
+
+    public int getStartupTimeout() {
+        return startupTimeout;
+    }
+
+    @DataBoundSetter
+    public void setStartupTimeout(int startupTimeout) {
+        this.startupTimeout = Math.max(1, startupTimeout);
+        save();
+    }
+
+    public int getRetryMaxAttempts() {
+        return retryMaxAttempts;
+    }
+
+    @DataBoundSetter
+    public void setRetryMaxAttempts(int retryMaxAttempts) {
+        this.retryMaxAttempts = Math.max(1, retryMaxAttempts);
+        save();
+    }
+
+    public long getRetryInitialDelay() {
+        return retryInitialDelay;
+    }
+
+    @DataBoundSetter
+    public void setRetryInitialDelay(long retryInitialDelay) {
+        this.retryInitialDelay = Math.max(1, retryInitialDelay);
+        save();
+    }
+
+    public long getRetryMaxDelay() {
+        return retryMaxDelay;
+    }
+
+    @DataBoundSetter
+    public void setRetryMaxDelay(long retryMaxDelay) {
+        this.retryMaxDelay = Math.max(1, retryMaxDelay);
+        save();
+    }
+
+    public int getBreakerFailureThreshold() {
+        return breakerFailureThreshold;
+    }
+
+    @DataBoundSetter
+    public void setBreakerFailureThreshold(int breakerFailureThreshold) {
+        this.breakerFailureThreshold = Math.max(1, breakerFailureThreshold);
+        save();
+    }
+
+    public long getBreakerLatencyThreshold() {
+        return breakerLatencyThreshold;
+    }
+
+    @DataBoundSetter
+    public void setBreakerLatencyThreshold(long breakerLatencyThreshold) {
+        this.breakerLatencyThreshold = Math.max(0, breakerLatencyThreshold);
+        save();
+    }
+
+    public int getBreakerOpenDuration() {
+        return breakerOpenDuration;
+    }
+
+    @DataBoundSetter
+    public void setBreakerOpenDuration(int breakerOpenDuration) {
+        this.breakerOpenDuration = Math.max(1, breakerOpenDuration);
+        save();
+    }
+
+    public boolean isFailoverEnabled() {
+        return failoverEnabled;
+    }
+
+    @DataBoundSetter
+    public void setFailoverEnabled(boolean failoverEnabled) {
+        this.failoverEnabled = failoverEnabled;
+        save();
+    }
+
+    public int getFailoverMaxAttempts() {
+        return failoverMaxAttempts;
+    }
+
+    @DataBoundSetter
+    public void setFailoverMaxAttempts(int failoverMaxAttempts) {
+        this.failoverMaxAttempts = Math.max(1, failoverMaxAttempts);
+        save();
+    }
+
+    public int getLaunchBackoffInitial() {
+        return launchBackoffInitial;
+    }
+
+    @DataBoundSetter
+    public void setLaunchBackoffInitial(int launchBackoffInitial) {
+        this.launchBackoffInitial = Math.max(1, launchBackoffInitial);
+        save();
+    }
+
+    public int getLaunchBackoffMax() {
+        return launchBackoffMax;
+    }
+
+    @DataBoundSetter
+    public void setLaunchBackoffMax(int launchBackoffMax) {
+        this.launchBackoffMax = Math.max(1, launchBackoffMax);
+        save();
+    }
+
+    public int getInstances(ReqtifyLane lane) {
+        return lane == ReqtifyLane.INTERACTIVE ? interactiveInstances : buildInstances;
+    }
+
+    public int getMaxConcurrentRequests(ReqtifyLane lane) {
+        return lane == ReqtifyLane.INTERACTIVE ? interactiveMaxConcurrentRequests : buildMaxConcurrentRequests;
+    }
+
+    public boolean isQueueBuilds() {
+        return queueBuilds;
+    }
+
+    @DataBoundSetter
+    public void setQueueBuilds(boolean queueBuilds) {
+        this.queueBuilds = queueBuilds;
+        save();
+    }
+
+    public List<ReqtifyQuota> getQuotas() {
+        return quotas != null ? Collections.unmodifiableList(quotas) : Collections.emptyList();
+    }
+
+    @DataBoundSetter
+    public void setQuotas(List<ReqtifyQuota> quotas) {
+        this.quotas = quotas != null ? new ArrayList<>(quotas) : new ArrayList<>();
+        save();
+    }
+
+    public List<ReqtifyEndpoint> getEndpoints() {
+        return endpoints != null ? Collections.unmodifiableList(endpoints) : Collections.emptyList();
+    }
+
+    @DataBoundSetter
+    public void setEndpoints(List<ReqtifyEndpoint> endpoints) {
+        this.endpoints = endpoints != null ? new ArrayList<>(endpoints) : new ArrayList<>();
+        save();
+    }
+
+    /**
+     * Directory where remote Reqtify servers write reports, reachable under the same path by the
+     * controller, or an empty string to write them directly to the workspace.
+     */
+    public String getSharedReportDirectory() {
+        return sharedReportDirectory != null ? sharedReportDirectory : "";
+    }
+
+    @DataBoundSetter
+    public void setSharedReportDirectory(String sharedReportDirectory) {
+        this.sharedReportDirectory = sharedReportDirectory != null ? sharedReportDirectory.trim() : "";
+        save();
+    }
+
+    public int getResultCacheSize() {
+        return resultCacheSize;
+    }
+
+    @DataBoundSetter
+    public void setResultCacheSize(int resultCacheSize) {
+        this.resultCacheSize = Math.max(0, resultCacheSize);
+        save();
+    }
+
+    /**
+     * Comma separated glob patterns of the workspace files the cached results depend on, or an empty
+     * string for all files.
+     */
+    public String getResultCacheInputs() {
+        return resultCacheInputs != null ? resultCacheInputs : "";
+    }
+
+    @DataBoundSetter
+    public void setResultCacheInputs(String resultCacheInputs) {
+        this.resultCacheInputs = resultCacheInputs != null ? resultCacheInputs.trim() : "";
+        save();
+    }
+
+    public boolean isShareIdenticalRequests() {
+        return shareIdenticalRequests;
+    }
+
+    @DataBoundSetter
+    public void setShareIdenticalRequests(boolean shareIdenticalRequests) {
+        this.shareIdenticalRequests = shareIdenticalRequests;
+        save();
+    }
+
+    /**
+     * Default timeout of the build steps in minutes, 0 for none.
+     */
+    public int getStepTimeout() {
+        return stepTimeout;
+    }
+
+    @DataBoundSetter
+    public void setStepTimeout(int stepTimeout) {
+        this.stepTimeout = Math.max(0, stepTimeout);
+        save();
+    }
+
+    /**
+     * Shortest time in seconds after which a request without answer is considered hung.
+     */
+    public int getAdaptiveTimeoutFloor() {
+        return adaptiveTimeoutFloor;
+    }
+
+    @DataBoundSetter
+    public void setAdaptiveTimeoutFloor(int adaptiveTimeoutFloor) {
+        this.adaptiveTimeoutFloor = Math.max(1, adaptiveTimeoutFloor);
+        save();
+    }
+
+    /**
+     * Longest time in seconds after which a request without answer is considered hung, 0 to disable
+     * adaptive timeouts.
+     */
+    public int getAdaptiveTimeoutCeiling() {
+        return adaptiveTimeoutCeiling;
+    }
+
+    @DataBoundSetter
+    public void setAdaptiveTimeoutCeiling(int adaptiveTimeoutCeiling) {
+        this.adaptiveTimeoutCeiling = Math.max(0, adaptiveTimeoutCeiling);
+        save();
+    }
+
+    /**
+     * Longest query string sent in the URL of a request, longer arguments are sent in the body of a POST
+     * request, for Reqtify servers accepting POST requests. 0, the default, always sends them in the URL.
+     */
+    public int getMaxQueryLength() {
+        return maxQueryLength;
+    }
+
+    @DataBoundSetter
+    public void setMaxQueryLength(int maxQueryLength) {
+        this.maxQueryLength = Math.max(0, maxQueryLength);
+        save();
+    }
+
+    public int getInteractiveInstances() {
+        return interactiveInstances;
+    }
+
+    @DataBoundSetter
+    public void setInteractiveInstances(int interactiveInstances) {
+        this.interactiveInstances = Math.max(0, interactiveInstances);
+        save();
+    }
+
+    public int getInteractiveMaxConcurrentRequests() {
+        return interactiveMaxConcurrentRequests;
+    }
+
+    @DataBoundSetter
+    public void setInteractiveMaxConcurrentRequests(int interactiveMaxConcurrentRequests) {
+        this.interactiveMaxConcurrentRequests = Math.max(1, interactiveMaxConcurrentRequests);
+        save();
+    }
+
+    public int getBuildInstances() {
+        return buildInstances;
+    }
+
+    @DataBoundSetter
+    public void setBuildInstances(int buildInstances) {
+        this.buildInstances = Math.max(0, buildInstances);
+        save();
+    }
+
+    public FormValidation doCheckBuildInstances(@QueryParameter int value) {
+        if (value == 0 && getEndpoints().isEmpty()) {
+            return FormValidation.error("Builds need at least one build instance or a remote endpoint");
+        }
+        return FormValidation.ok();
+    }
+
+    public int getBuildMaxConcurrentRequests() {
+        return buildMaxConcurrentRequests;
+    }
+
+    @DataBoundSetter
+    public void setBuildMaxConcurrentRequests(int buildMaxConcurrentRequests) {
+        this.buildMaxConcurrentRequests = Math.max(1, buildMaxConcurrentRequests);
+        save();
+    }
+}
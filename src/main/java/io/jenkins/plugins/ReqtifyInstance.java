@@ -0,0 +1,304 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A Reqtify server process started by the plugin, or a remote Reqtify server configured as an endpoint,
+ * together with its lifecycle state.
+ *
+ * @author Dassault Systèmes
+ */
+public class ReqtifyInstance {
+
+    public enum State {
+        STARTING,
+        READY,
+        BUSY,
+        DRAINING,
+        DEAD
+    }
+
+    private final String key;
+    private final ReqtifyLane lane;
+    private final String host;
+    private final int port;
+    private final Process process;
+    private final ProcessHandle processHandle;
+    private final long startTime;
+    private final AtomicReference<State> state = new AtomicReference<>(State.STARTING);
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private final AtomicBoolean servedRequests = new AtomicBoolean();
+    private final ReqtifyCircuitBreaker circuitBreaker = ReqtifyCircuitBreaker.fromConfiguration();
+    private final ReqtifyAdmissionQueue admissionQueue;
+    private volatile String lastProject;
+    private volatile boolean healthy = true;
+    private volatile String cookie = "";
+    // Project of the requests running on the server, guarded by this
+    private String activeProject;
+    private int activeProjectRequests;
+
+    public ReqtifyInstance(String key, ReqtifyLane lane, int port, Process process) {
+        this(key, lane, "localhost", port, process, process.toHandle(), System.currentTimeMillis(), 0);
+    }
+
+    /**
+     * Wraps a Reqtify process launched by a previous run of the controller.
+     */
+    ReqtifyInstance(String key, ReqtifyLane lane, int port, ProcessHandle processHandle, long startTime) {
+        this(key, lane, "localhost", port, null, processHandle, startTime, 0);
+    }
+
+    /**
+     * Wraps a Reqtify server running on another host, which accepts up to {@code capacity} requests at
+     * the same time.
+     */
+    ReqtifyInstance(String key, String host, int port, int capacity) {
+        this(key, ReqtifyLane.BUILD, host, port, null, null, System.currentTimeMillis(), capacity);
+        state.set(State.READY);
+        servedRequests.set(true);
+    }
+
+    private ReqtifyInstance(
+            String key,
+            ReqtifyLane lane,
+            String host,
+            int port,
+            Process process,
+            ProcessHandle processHandle,
+            long startTime,
+            int capacity) {
+        this.key = key;
+        this.lane = lane;
+        this.host = host;
+        this.port = port;
+        this.process = process;
+        this.processHandle = processHandle;
+        this.startTime = startTime;
+        this.admissionQueue = new ReqtifyAdmissionQueue(
+                capacity > 0 ? capacity : ReqtifyGlobalConfiguration.get().getMaxConcurrentRequests(lane));
+    }
+
+    /**
+     * Slot of the registry holding this instance.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public ReqtifyLane getLane() {
+        return lane;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public boolean isRemote() {
+        return processHandle == null;
+    }
+
+    public long getPid() {
+        return processHandle.pid();
+    }
+
+    /**
+     * Whether the local process is running, or the remote server passed its last health check.
+     */
+    public boolean isProcessAlive() {
+        return isRemote() ? healthy : processHandle.isAlive();
+    }
+
+    /**
+     * Whether the process exited with the error code Reqtify uses when it crashes. The exit code of
+     * a reattached process is unknown, any exit is then considered abnormal. A remote server is not
+     * ours to crash: failing to reach it is a transport failure, retried and counted by the circuit
+     * breaker like any other.
+     */
+    public boolean hasTerminatedAbnormally() {
+        if (isRemote()) {
+            return false;
+        }
+        if (process != null) {
+            return !process.isAlive() && process.exitValue() == 1;
+        }
+        return !processHandle.isAlive();
+    }
+
+    /**
+     * Probes a remote server and records whether it accepts connections.
+     */
+    boolean checkHealth() {
+        healthy = ReqtifyData.utils.isPortListening(host, port);
+        return healthy;
+    }
+
+    void markUnhealthy() {
+        healthy = false;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public ReqtifyCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public ReqtifyAdmissionQueue getAdmissionQueue() {
+        return admissionQueue;
+    }
+
+    /**
+     * Number of requests running or waiting on this instance.
+     */
+    public int getLoad() {
+        return admissionQueue.getInFlight() + admissionQueue.getWaiting();
+    }
+
+    /**
+     * Workspace of the project most recently opened on this instance.
+     */
+    public String getLastProject() {
+        return lastProject;
+    }
+
+    void setLastProject(String lastProject) {
+        this.lastProject = lastProject;
+    }
+
+    /**
+     * Waits until no request on another project runs on the server, then counts the caller as running a
+     * request on the project until {@link #exitProject()}. Requests on the same project run concurrently,
+     * while opening another project waits for them, so that the open project cannot change under a request.
+     *
+     * @return true when another project was opened last, which the caller must open again first
+     */
+    synchronized boolean enterProject(String project) throws InterruptedException {
+        while (activeProjectRequests > 0 && !project.equals(activeProject)) {
+            wait();
+        }
+        activeProject = project;
+        activeProjectRequests++;
+        return !project.equals(lastProject);
+    }
+
+    synchronized void exitProject() {
+        activeProjectRequests--;
+        notifyAll();
+    }
+
+    /**
+     * Session cookie set by this server, sent back with the next requests.
+     */
+    String getCookie() {
+        return cookie;
+    }
+
+    void setCookie(String cookie) {
+        this.cookie = cookie;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    public String getBaseUrl() {
+        return "http://" + host + ":" + port;
+    }
+
+    /**
+     * Log file of a local process, or null for a remote server.
+     */
+    public String getLogFile() {
+        return isRemote() ? null : ReqtifyData.tempDir + "reqtifyLog_" + port + ".log";
+    }
+
+    public boolean isAlive() {
+        return isProcessAlive() && state.get() != State.DEAD;
+    }
+
+    public boolean isAcceptingRequests() {
+        State current = state.get();
+        return (current == State.READY || current == State.BUSY) && isProcessAlive();
+    }
+
+    public boolean hasServedRequests() {
+        return servedRequests.get();
+    }
+
+    /**
+     * @return true the first time a request has been served successfully
+     */
+    boolean markServed() {
+        return servedRequests.compareAndSet(false, true);
+    }
+
+    void markReady() {
+        state.compareAndSet(State.STARTING, activeRequests.get() > 0 ? State.BUSY : State.READY);
+    }
+
+    void beginRequest() {
+        activeRequests.incrementAndGet();
+        state.compareAndSet(State.READY, State.BUSY);
+    }
+
+    void endRequest() {
+        if (activeRequests.decrementAndGet() == 0) {
+            if (!state.compareAndSet(State.BUSY, State.READY) && state.get() == State.DRAINING) {
+                terminate();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting new requests and terminates the process once the in-flight ones are done.
+     */
+    void drain() {
+        State current = state.get();
+        while (current != State.DEAD && current != State.DRAINING) {
+            if (state.compareAndSet(current, State.DRAINING)) {
+                break;
+            }
+            current = state.get();
+        }
+        if (activeRequests.get() == 0) {
+            terminate();
+        }
+    }
+
+    void terminate() {
+        state.set(State.DEAD);
+        if (!isRemote() && processHandle.isAlive()) {
+            processHandle.destroy();
+        }
+    }
+}
@@ -0,0 +1,572 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Thread-safe registry of the Reqtify servers launched by the plugin. Each lane owns a configurable
+ * number of slots holding one instance each. Concurrent callers needing the same slot share a single
+ * in-flight launch.
+ *
+ * @author Dassault Systèmes
+ */
+public class ReqtifyInstanceRegistry {
+
+    private static final Logger LOGGER = Logger.getLogger(ReqtifyInstanceRegistry.class.getName());
+    private static final long READY_PROBE_INTERVAL = 500;
+    private static final long PROCESS_START_TOLERANCE = 10000;
+    private static final String STATE_FILE = "reqtify-instances.json";
+    private static final String LANG = "eng";
+
+    private final ConcurrentMap<String, CompletableFuture<ReqtifyInstance>> instances = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ReqtifyInstance> remotes = new ConcurrentHashMap<>();
+    private final ReqtifyLaunchBackoff launchBackoff = new ReqtifyLaunchBackoff();
+
+    /**
+     * Returns the instance of the lane to send the requests on a project to. The instance that last
+     * opened the project is preferred while it can accept more requests, so that the project does not
+     * need to be loaded again. Otherwise the slots and the healthy remote endpoints of the build lane are
+     * tried in an order given by rendezvous hashing of the project, which keeps sending a project to the
+     * same instance: first the running instance with the fewest outstanding requests among those that can
+     * accept more, then a new instance in an empty slot, and finally the instance with the fewest
+     * outstanding requests. Each instance accepts as many requests as its admission queue lets in at the
+     * same time. Instances whose circuit breaker is open are only returned when no other instance is left.
+     *
+     * @param project workspace path of the project, or null when unknown
+     */
+    public ReqtifyInstance acquire(ReqtifyLane lane, String project) throws IOException {
+        lane = effectiveLane(lane);
+        List<String> slots = new ArrayList<>();
+        for (int i = 0; i < ReqtifyGlobalConfiguration.get().getInstances(lane); i++) {
+            slots.add(slotKey(lane, i));
+        }
+        String firstLocalSlot = slots.isEmpty() ? null : slots.get(0);
+        if (lane == ReqtifyLane.BUILD) {
+            for (ReqtifyInstance remote : getRemoteInstances()) {
+                slots.add(remote.getKey());
+            }
+        }
+        if (project != null) {
+            slots.sort(Comparator.comparingInt((String key) -> rendezvousWeight(project, key)).reversed());
+        }
+
+        List<ReqtifyInstance> running = new ArrayList<>();
+        // Instances whose circuit breaker is open would reject the requests at once
+        List<ReqtifyInstance> rejecting = new ArrayList<>();
+        String freeSlot = null;
+        for (String key : slots) {
+            ReqtifyInstance instance = remotes.get(key);
+            if (instance != null) {
+                if (!instance.isAlive()) {
+                    continue;
+                }
+            } else {
+                CompletableFuture<ReqtifyInstance> current = instances.get(key);
+                if (current == null) {
+                    if (freeSlot == null) {
+                        freeSlot = key;
+                    }
+                    continue;
+                }
+                instance = peek(current);
+                if (instance == null || !isUsable(instance)) {
+                    continue;
+                }
+            }
+            if (instance.getCircuitBreaker().isOpen()) {
+                rejecting.add(instance);
+            } else {
+                running.add(instance);
+            }
+        }
+
+        List<ReqtifyInstance> available = new ArrayList<>();
+        for (ReqtifyInstance instance : running) {
+            if (instance.getLoad() < instance.getAdmissionQueue().getMaxInFlight()) {
+                if (project != null && project.equals(instance.getLastProject())) {
+                    return instance;
+                }
+                available.add(instance);
+            }
+        }
+        ReqtifyInstance leastLoaded = leastLoaded(available);
+        if (leastLoaded != null) {
+            return leastLoaded;
+        }
+        if (freeSlot != null) {
+            return getOrLaunch(freeSlot, lane);
+        }
+        // Every instance is busy, spill over to the least loaded one
+        ReqtifyInstance best = leastLoaded(running);
+        if (best == null) {
+            // Only failing instances are left, their circuit breaker reports when they are retried
+            best = leastLoaded(rejecting);
+        }
+        if (best != null) {
+            return best;
+        }
+        if (firstLocalSlot == null) {
+            throw new ConnectException("No Reqtify server is reachable");
+        }
+        return getOrLaunch(firstLocalSlot, lane);
+    }
+
+    private static ReqtifyInstance leastLoaded(List<ReqtifyInstance> candidates) {
+        ReqtifyInstance best = null;
+        for (ReqtifyInstance instance : candidates) {
+            if (best == null || instance.getLoad() < best.getLoad()) {
+                best = instance;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the remote endpoints of the global configuration, keeping the state of the unchanged ones.
+     */
+    List<ReqtifyInstance> getRemoteInstances() {
+        Set<String> keys = new HashSet<>();
+        for (ReqtifyEndpoint endpoint : ReqtifyGlobalConfiguration.get().getEndpoints()) {
+            keys.add(endpoint.getKey());
+            remotes.compute(endpoint.getKey(), (key, current) -> {
+                if (current != null && current.getAdmissionQueue().getMaxInFlight() == endpoint.getCapacity()) {
+                    return current;
+                }
+                // Considered healthy until the periodic health check or its circuit breaker says otherwise
+                return new ReqtifyInstance(key, endpoint.getHost(), endpoint.getPort(), endpoint.getCapacity());
+            });
+        }
+        remotes.keySet().retainAll(keys);
+        return new ArrayList<>(remotes.values());
+    }
+
+    /**
+     * Probes every remote endpoint, so that unreachable ones are skipped and recovered ones used again.
+     */
+    public void checkRemoteHealth() {
+        boolean changed = false;
+        for (ReqtifyInstance remote : getRemoteInstances()) {
+            boolean wasHealthy = remote.isProcessAlive();
+            if (remote.checkHealth() != wasHealthy) {
+                LOGGER.log(Level.INFO, "Reqtify server {0} is {1}", new Object[] {
+                    remote.getBaseUrl(), wasHealthy ? "no longer reachable" : "reachable again"
+                });
+                changed = true;
+            }
+        }
+        if (changed) {
+            ReqtifyData.leases.onCapacityChanged();
+        }
+    }
+
+    private ReqtifyInstance getOrLaunch(String key, ReqtifyLane lane) throws IOException {
+        while (true) {
+            CompletableFuture<ReqtifyInstance> launch = new CompletableFuture<>();
+            CompletableFuture<ReqtifyInstance> current = instances.putIfAbsent(key, launch);
+            if (current == null) {
+                try {
+                    launchBackoff.checkCanLaunch();
+                } catch (IOException e) {
+                    instances.remove(key, launch);
+                    launch.completeExceptionally(e);
+                    throw e;
+                }
+                try {
+                    ReqtifyInstance instance = launch(key, lane);
+                    launch.complete(instance);
+                    save();
+                    return instance;
+                } catch (IOException | RuntimeException e) {
+                    // An aborted build says nothing about whether Reqtify can start
+                    if (!(e instanceof InterruptedIOException) && !Thread.currentThread().isInterrupted()) {
+                        launchBackoff.recordFailure(e.getMessage());
+                    }
+                    instances.remove(key, launch);
+                    launch.completeExceptionally(e);
+                    throw e;
+                }
+            }
+
+            ReqtifyInstance instance;
+            try {
+                instance = await(current);
+            } catch (InterruptedIOException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                // The build launching the instance was aborted, launch it for this caller instead
+                continue;
+            }
+            if (isUsable(instance)) {
+                return instance;
+            }
+            // The process exited or stopped listening, replace it
+            if (instances.remove(key, current)) {
+                recordExit(instance);
+                instance.drain();
+                save();
+            }
+        }
+    }
+
+    private static ReqtifyLane effectiveLane(ReqtifyLane lane) {
+        // Without reserved interactive instances, configuration pages share the build instances
+        if (lane == ReqtifyLane.INTERACTIVE && ReqtifyGlobalConfiguration.get().getInstances(lane) == 0) {
+            return ReqtifyLane.BUILD;
+        }
+        return lane;
+    }
+
+    private static String slotKey(ReqtifyLane lane, int index) {
+        return lane.name().toLowerCase(Locale.ENGLISH) + "-" + index;
+    }
+
+    private static int rendezvousWeight(String project, String key) {
+        // Finalizer of MurmurHash3, String.hashCode alone clusters on similar paths
+        int h = (project + "|" + key).hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Removes an instance whose process terminated abnormally so that the next caller launches a new one.
+     */
+    public void retire(ReqtifyInstance instance) {
+        if (instance.isRemote()) {
+            // Not ours to restart, the health check brings it back once it answers again
+            instance.markUnhealthy();
+            return;
+        }
+        instances.computeIfPresent(instance.getKey(), (key, current) -> peek(current) == instance ? null : current);
+        recordExit(instance);
+        instance.terminate();
+        save();
+    }
+
+    /**
+     * Called once an instance answered its first request successfully, which ends a crash loop.
+     */
+    void onFirstRequestServed(ReqtifyInstance instance) {
+        if (!instance.isRemote()) {
+            launchBackoff.recordSuccess();
+        }
+    }
+
+    public boolean isCrashLooping() {
+        return launchBackoff.isCrashLooping();
+    }
+
+    private void recordExit(ReqtifyInstance instance) {
+        // An instance that never served a request failed right after its launch
+        if (!instance.hasServedRequests()) {
+            launchBackoff.recordFailure(ReqtifyData.utils.getLastLineOfFile(instance.getLogFile()));
+        }
+    }
+
+    /**
+     * Writes the running instances to disk so that the next start of the controller can reattach to them.
+     */
+    public synchronized void save() {
+        File file = getStateFile();
+        if (file == null) {
+            return;
+        }
+        JSONArray entries = new JSONArray();
+        for (CompletableFuture<ReqtifyInstance> current : instances.values()) {
+            ReqtifyInstance instance = peek(current);
+            if (instance == null || !instance.isAlive()) {
+                continue;
+            }
+            JSONObject entry = new JSONObject();
+            entry.put("key", instance.getKey());
+            entry.put("lane", instance.getLane().name());
+            entry.put("pid", instance.getPid());
+            entry.put("port", instance.getPort());
+            entry.put("project", instance.getLastProject());
+            entry.put("startTime", instance.getStartTime());
+            entries.add(entry);
+        }
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            entries.writeJSONString(writer);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to save the Reqtify instances to " + file, e);
+        }
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void reattachInstances() {
+        ReqtifyData.registry.reattach();
+    }
+
+    /**
+     * Reattaches to the healthy Reqtify servers left running by the previous controller and kills the
+     * ones that no longer answer.
+     */
+    synchronized void reattach() {
+        File file = getStateFile();
+        if (file == null || !file.exists()) {
+            return;
+        }
+        JSONArray entries;
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            entries = (JSONArray) new JSONParser().parse(reader);
+        } catch (IOException | ParseException | ClassCastException e) {
+            LOGGER.log(Level.WARNING, "Ignoring unreadable Reqtify instance registry " + file, e);
+            return;
+        }
+        for (Object item : entries) {
+            ReqtifyInstance instance;
+            try {
+                instance = toInstance((JSONObject) item);
+            } catch (ClassCastException | NullPointerException | IllegalArgumentException e) {
+                // Written by another version of the plugin, or edited by hand
+                LOGGER.log(Level.WARNING, "Ignoring malformed Reqtify instance entry " + item, e);
+                continue;
+            }
+            if (instance == null) {
+                continue;
+            }
+            if (isConfiguredSlot(instance.getKey(), instance.getLane())
+                    && ReqtifyData.utils.isLocalPortListening(instance.getPort())
+                    && instances.putIfAbsent(instance.getKey(), CompletableFuture.completedFuture(instance)) == null) {
+                LOGGER.log(Level.INFO, "Reattached to Reqtify process " + instance.getPid() + " on port "
+                        + instance.getPort());
+            } else {
+                LOGGER.log(Level.INFO, "Killing stale Reqtify process " + instance.getPid());
+                instance.terminate();
+            }
+        }
+        save();
+    }
+
+    /**
+     * Returns the instance described by an entry of the state file, or null when its process is gone.
+     */
+    private static ReqtifyInstance toInstance(JSONObject entry) {
+        String key = (String) entry.get("key");
+        ReqtifyLane lane = ReqtifyLane.valueOf((String) entry.get("lane"));
+        int port = ((Number) entry.get("port")).intValue();
+        long startTime = ((Number) entry.get("startTime")).longValue();
+        Optional<ProcessHandle> processHandle = ProcessHandle.of(((Number) entry.get("pid")).longValue())
+                .filter(ProcessHandle::isAlive)
+                .filter(handle -> isSameProcess(handle, startTime));
+        if (!processHandle.isPresent()) {
+            return null;
+        }
+        ReqtifyInstance instance = new ReqtifyInstance(key, lane, port, processHandle.get(), startTime);
+        instance.setLastProject((String) entry.get("project"));
+        instance.markReady();
+        instance.markServed();
+        return instance;
+    }
+
+    /**
+     * Returns whether the slot still exists in the global configuration. An instance in a removed slot
+     * would never be used again.
+     */
+    private static boolean isConfiguredSlot(String key, ReqtifyLane lane) {
+        for (int i = 0; i < ReqtifyGlobalConfiguration.get().getInstances(lane); i++) {
+            if (slotKey(lane, i).equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Guards against the PID having been reused by another program since it was saved.
+     */
+    private static boolean isSameProcess(ProcessHandle handle, long startTime) {
+        ProcessHandle.Info info = handle.info();
+        if (info.startInstant().isPresent()) {
+            return Math.abs(info.startInstant().get().toEpochMilli() - startTime) < PROCESS_START_TOLERANCE;
+        }
+        return info.command()
+                .map(command -> command.toLowerCase(Locale.ENGLISH).contains("reqtify"))
+                .orElse(true);
+    }
+
+    private static File getStateFile() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        return jenkins == null ? null : new File(jenkins.getRootDir(), STATE_FILE);
+    }
+
+    private static ReqtifyInstance peek(CompletableFuture<ReqtifyInstance> current) {
+        if (current == null || !current.isDone() || current.isCompletedExceptionally()) {
+            return null;
+        }
+        return current.join();
+    }
+
+    private static boolean isUsable(ReqtifyInstance instance) {
+        switch (instance.getState()) {
+            case STARTING:
+                return instance.isProcessAlive();
+            case READY:
+            case BUSY:
+                return instance.isProcessAlive() && !ReqtifyData.utils.isLocalPortFree(instance.getPort());
+            default:
+                return false;
+        }
+    }
+
+    private static ReqtifyInstance await(CompletableFuture<ReqtifyInstance> launch) throws IOException {
+        try {
+            return launch.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt(); // Restore interrupted status
+            throw new InterruptedIOException("Interrupted while waiting for Reqtify to start");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Starts a Reqtify process for the slot and waits until it accepts requests. Overridden by the tests,
+     * which have no Reqtify to start.
+     */
+    ReqtifyInstance launch(String key, ReqtifyLane lane) throws IOException {
+        String reqtifyPath = Utils.findReqtifyPath();
+        int reqtifyPort = ReqtifyData.utils.nextFreePort(4000, 8000);
+        String[] args = {
+            reqtifyPath,
+            "-http",
+            String.valueOf(reqtifyPort),
+            "-logfile",
+            ReqtifyData.tempDir + "reqtifyLog_" + reqtifyPort + ".log",
+            "-l",
+            LANG,
+            "-timeout",
+            ReqtifyData.reqtifyTimeoutValue
+        };
+        Process proc = Runtime.getRuntime().exec(args);
+        ReqtifyInstance instance = new ReqtifyInstance(key, lane, reqtifyPort, proc);
+        try {
+            awaitReady(instance, ReqtifyGlobalConfiguration.get().getStartupTimeout() * 1000L);
+        } catch (IOException | RuntimeException e) {
+            instance.terminate();
+            throw e;
+        }
+        return instance;
+    }
+
+    /**
+     * Blocks until the server accepts connections on its port. Writes to the log file wake the
+     * waiter up early, the probe interval only bounds the wait when Reqtify logs nothing.
+     */
+    private static void awaitReady(ReqtifyInstance instance, long startupTimeout) throws IOException {
+        long deadline = System.currentTimeMillis() + startupTimeout;
+        Path logFile = Paths.get(instance.getLogFile()).toAbsolutePath();
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            logFile.getParent().register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+            while (true) {
+                if (!instance.isProcessAlive()) {
+                    throw new IOException("Reqtify exited during startup: "
+                            + ReqtifyData.utils.getLastLineOfFile(instance.getLogFile()));
+                }
+                if (ReqtifyData.utils.isLocalPortListening(instance.getPort())) {
+                    instance.markReady();
+                    return;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new IOException("Reqtify did not start listening on port " + instance.getPort()
+                            + " within " + (startupTimeout / 1000) + " seconds");
+                }
+                waitForLogChange(watcher, logFile, Math.min(remaining, READY_PROBE_INTERVAL));
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt(); // Restore interrupted status
+            throw new InterruptedIOException("Interrupted while waiting for Reqtify to start");
+        }
+    }
+
+    private static void waitForLogChange(WatchService watcher, Path logFile, long timeout)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        long remaining = timeout;
+        while (remaining > 0) {
+            WatchKey key = watcher.poll(remaining, TimeUnit.MILLISECONDS);
+            if (key == null) {
+                return;
+            }
+            boolean changed = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (logFile.getFileName().equals(event.context())) {
+                    changed = true;
+                }
+            }
+            key.reset();
+            if (changed) {
+                return;
+            }
+            remaining = deadline - System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recent response times of Reqtify per endpoint and project, from which the time after which a request
+ * is considered hung is derived. Listing the functions of a project normally takes a fraction of a second
+ * while generating a report may take many minutes, so a single timeout would either detect nothing or
+ * fail long reports. Only the most recently used keys are kept, as every workspace is another project.
+ * When a request times out anyway, the timeout of its key is raised, so that a project getting slower does
+ * not fail every following request. Opening a project is not tracked: it is immediate when the instance
+ * already has the project loaded, and may take minutes otherwise.
+ *
+ * @author Dassault Systèmes
+ */
+public class ReqtifyLatencyTracker {
+
+    private static final int WINDOW = 100;
+    // Below this, the usual response time is not known and no timeout is derived
+    private static final int MIN_SAMPLES = 10;
+    private static final double PERCENTILE = 0.99;
+    // Margin above the slowest usual answers before a request is considered hung
+    private static final int TOLERANCE = 3;
+    private static final int MAX_KEYS = 1000;
+
+    // Access order, the least recently used key is dropped first
+    private final Map<String, Samples> samples = new LinkedHashMap<String, Samples>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Samples> eldest) {
+            return size() > MAX_KEYS;
+        }
+    };
+
+    private static final class Samples {
+        private final long[] values = new long[WINDOW];
+        private int count;
+        private int next;
+        // Raised when a request timed out
+        private long minTimeout;
+    }
+
+    /**
+     * Returns the key of a request sent to an instance: its endpoint and the project it applies to, or
+     * null for a request opening a project.
+     */
+    public static String key(String targetURL, ReqtifyInstance instance) {
+        String endpoint = Utils.getEndpoint(targetURL);
+        if ("openProject".equals(endpoint)) {
+            return null;
+        }
+        String project = instance.getLastProject();
+        return endpoint + " " + (project != null ? project : "");
+    }
+
+    /**
+     * Records the time Reqtify took to start answering a request.
+     */
+    public synchronized void record(String key, long millis) {
+        if (key == null) {
+            return;
+        }
+        Samples window = samples.computeIfAbsent(key, k -> new Samples());
+        window.values[window.next] = millis;
+        window.next = (window.next + 1) % WINDOW;
+        window.count = Math.min(window.count + 1, WINDOW);
+    }
+
+    /**
+     * Records a request abandoned after the given time without answer, and raises the timeout of the
+     * following requests above it.
+     */
+    public synchronized void recordTimeout(String key, long millis) {
+        if (key == null) {
+            return;
+        }
+        record(key, millis);
+        Samples window = samples.get(key);
+        window.minTimeout = Math.max(window.minTimeout, millis * TOLERANCE);
+    }
+
+    /**
+     * Returns the usual worst response time in milliseconds, or -1 while it is not known.
+     */
+    public synchronized long getPercentile(String key) {
+        Samples window = key != null ? samples.get(key) : null;
+        if (window == null || window.count < MIN_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(window.values, window.count);
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(PERCENTILE * sorted.length) - 1];
+    }
+
+    /**
+     * Returns the time in milliseconds after which a request without answer is considered hung, within
+     * the floor and ceiling of the global configuration, or 0 when it cannot be derived yet or adaptive
+     * timeouts are disabled.
+     */
+    public long getTimeout(String key) {
+        ReqtifyGlobalConfiguration config = ReqtifyGlobalConfiguration.get();
+        long ceiling = config.getAdaptiveTimeoutCeiling() * 1000L;
+        long percentile;
+        long minTimeout;
+        synchronized (this) {
+            percentile = getPercentile(key);
+            minTimeout = percentile >= 0 ? samples.get(key).minTimeout : 0;
+        }
+        if (ceiling <= 0 || percentile < 0) {
+            return 0;
+        }
+        long floor = Math.max(config.getAdaptiveTimeoutFloor() * 1000L, minTimeout);
+        return Math.min(ceiling, Math.max(floor, percentile * TOLERANCE));
+    }
+}
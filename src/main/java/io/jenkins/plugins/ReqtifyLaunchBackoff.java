@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import java.io.IOException;
+
+/**
+ * Tracks consecutive failed launches of Reqtify on this host. After a failure, new launches are refused
+ * for an exponentially growing delay so that a Reqtify that cannot start (license issue, corrupt
+ * project...) does not flood the controller with short-lived processes.
+ *
+ * @author Dassault Systèmes
+ */
+public class ReqtifyLaunchBackoff {
+
+    private int consecutiveFailures;
+    private long nextAttempt;
+    private String lastError = "";
+
+    /**
+     * @throws IOException if Reqtify is crash looping and the backoff delay has not elapsed yet
+     */
+    public synchronized void checkCanLaunch() throws IOException {
+        long wait = nextAttempt - System.currentTimeMillis();
+        if (consecutiveFailures > 0 && wait > 0) {
+            throw new IOException("Reqtify failed to start " + consecutiveFailures + " time(s) in a row, "
+                    + "next launch attempt in " + ((wait + 999) / 1000) + " seconds. Last error: " + lastError);
+        }
+    }
+
+    public synchronized void recordFailure(String error) {
+        ReqtifyGlobalConfiguration config = ReqtifyGlobalConfiguration.get();
+        long maxDelay = config.getLaunchBackoffMax() * 1000L;
+        long delay = (config.getLaunchBackoffInitial() * 1000L) << Math.min(consecutiveFailures, 20);
+        if (delay <= 0 || delay > maxDelay) {
+            delay = maxDelay;
+        }
+        consecutiveFailures++;
+        nextAttempt = System.currentTimeMillis() + delay;
+        lastError = error;
+    }
+
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        nextAttempt = 0;
+        lastError = "";
+    }
+
+    public synchronized boolean isCrashLooping() {
+        return consecutiveFailures > 0;
+    }
+}
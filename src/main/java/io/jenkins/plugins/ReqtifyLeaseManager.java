@@ -0,0 +1,197 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import hudson.model.TaskListener;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hands out the leases allowing build steps to use the Reqtify build instances, within the capacity of
+ * the build lane and the quotas of the folders and jobs. A folder or job over its quota may still
+ * borrow idle capacity, as long as no build within its own quota is waiting. Waiters are otherwise
+ * served in arrival order.
+ *
+ * @author Dassault Systèmes
+ */
+public class ReqtifyLeaseManager {
+
+    private final Map<String, Integer> held = new HashMap<>();
+    private final List<Lease> waiting = new ArrayList<>();
+    private int total;
+
+    /**
+     * Lease held by a build step, to be closed once it no longer sends requests.
+     */
+    public final class Lease implements AutoCloseable {
+
+        private final List<ReqtifyQuota> quotas;
+        private boolean released;
+
+        private Lease(List<ReqtifyQuota> quotas) {
+            this.quotas = quotas;
+        }
+
+        @Override
+        public void close() {
+            release(this);
+        }
+    }
+
+    /**
+     * Waits until the job may use Reqtify. The reason of the wait is printed to the build log.
+     *
+     * @throws ConnectException when there is neither a build instance nor a reachable remote endpoint
+     */
+    public synchronized Lease acquire(String jobFullName, TaskListener listener)
+            throws InterruptedException, ConnectException {
+        checkCapacity();
+        Lease lease = new Lease(findQuotas(jobFullName));
+        waiting.add(lease);
+        if (nextGranted() == lease) {
+            grant(lease);
+            return lease;
+        }
+        long start = System.currentTimeMillis();
+        if (listener != null) {
+            listener.getLogger().println("Waiting for Reqtify: " + describeWait(lease));
+        }
+        try {
+            while (nextGranted() != lease) {
+                wait();
+                checkCapacity();
+            }
+        } catch (InterruptedException | ConnectException e) {
+            waiting.remove(lease);
+            notifyAll();
+            throw e;
+        }
+        grant(lease);
+        if (listener != null) {
+            listener.getLogger()
+                    .println("Waited " + (System.currentTimeMillis() - start) / 1000 + " s for a Reqtify lease");
+        }
+        return lease;
+    }
+
+    public synchronized int getHeld() {
+        return total;
+    }
+
+    /**
+     * Wakes up the waiting builds after the capacity changed, for example when a remote endpoint became
+     * reachable again.
+     */
+    public synchronized void onCapacityChanged() {
+        notifyAll();
+    }
+
+    private static void checkCapacity() throws ConnectException {
+        if (ReqtifyQueueTaskDispatcher.getCapacity() == 0) {
+            throw new ConnectException("No Reqtify server is available: the build instances are set to 0 and no "
+                    + "remote endpoint is configured and reachable");
+        }
+    }
+
+    private void grant(Lease lease) {
+        waiting.remove(lease);
+        total++;
+        for (ReqtifyQuota quota : lease.quotas) {
+            held.merge(quota.getPath(), 1, Integer::sum);
+        }
+        // The next waiter may be eligible as well
+        notifyAll();
+    }
+
+    private synchronized void release(Lease lease) {
+        if (lease.released) {
+            return;
+        }
+        lease.released = true;
+        total--;
+        for (ReqtifyQuota quota : lease.quotas) {
+            held.merge(quota.getPath(), -1, Integer::sum);
+        }
+        notifyAll();
+    }
+
+    private Lease nextGranted() {
+        if (total >= ReqtifyQueueTaskDispatcher.getCapacity()) {
+            return null;
+        }
+        for (Lease lease : waiting) {
+            if (isWithinQuota(lease)) {
+                return lease;
+            }
+        }
+        // Nobody within its quota is waiting, the idle capacity can be borrowed
+        return waiting.isEmpty() ? null : waiting.get(0);
+    }
+
+    private boolean isWithinQuota(Lease lease) {
+        return findExceededQuota(lease) == null;
+    }
+
+    /**
+     * Returns the first quota of the lease whose folder or job already holds all its leases, or null.
+     */
+    private ReqtifyQuota findExceededQuota(Lease lease) {
+        for (ReqtifyQuota quota : lease.quotas) {
+            if (held.getOrDefault(quota.getPath(), 0) >= quota.getMaxLeases()) {
+                return quota;
+            }
+        }
+        return null;
+    }
+
+    private String describeWait(Lease lease) {
+        int capacity = ReqtifyQueueTaskDispatcher.getCapacity();
+        if (total >= capacity) {
+            return "all " + capacity + " leases are in use";
+        }
+        ReqtifyQuota exceeded = findExceededQuota(lease);
+        if (exceeded != null) {
+            return "'" + exceeded.getPath() + "' already uses its " + exceeded.getMaxLeases()
+                    + " leases and other builds are waiting";
+        }
+        return "other builds are waiting for a lease";
+    }
+
+    /**
+     * Returns the quotas applying to the job: its own and those of the folders containing it.
+     */
+    private static List<ReqtifyQuota> findQuotas(String jobFullName) {
+        List<ReqtifyQuota> found = new ArrayList<>();
+        for (ReqtifyQuota quota : ReqtifyGlobalConfiguration.get().getQuotas()) {
+            if (quota.matches(jobFullName)
+                    && found.stream().noneMatch(other -> other.getPath().equals(quota.getPath()))) {
+                found.add(quota);
+            }
+        }
+        return found;
+    }
+}
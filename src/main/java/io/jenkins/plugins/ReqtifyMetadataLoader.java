@@ -0,0 +1,173 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Lists read from Reqtify for the configuration pages, such as the functions or the report models of a
+ * project. Identical lookups made at the same time, for example by several users opening job
+ * configurations, share one call to Reqtify. The lists of a page can be loaded together after opening
+ * the project once, and are then reused for a few seconds by the other dropdowns of the page. Lookups on
+ * different interactive instances run in parallel.
+ *
+ * @author Dassault Systèmes
+ */
+public class ReqtifyMetadataLoader {
+
+    // Dropdowns of a page are filled by separate requests of the browser
+    private static final long REUSE_MILLIS = 5000;
+
+    private final Map<String, Lookup> lookups = new HashMap<>();
+    // Keyed by instance, the lists of a page are read after one project open
+    private final Map<String, Object> instanceLocks = new ConcurrentHashMap<>();
+
+    private static final class Lookup {
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+        private long completedAt;
+    }
+
+    /**
+     * Returns the answer of a list request on the project of a workspace, waiting for the identical
+     * request in flight if any. When Reqtify terminates abnormally, its instance is retired and the
+     * exception carries the last line of its log.
+     *
+     * @param currentJob name of the job whose configuration is displayed
+     * @param request endpoint name followed by its query string, e.g. {@code getFunctions?}
+     */
+    public Object load(String currentJob, String workspace, String request)
+            throws ParseException, IOException, ReqtifyException {
+        return load(currentJob, workspace, request, Collections.emptyList());
+    }
+
+    /**
+     * Returns the answer of a list request like {@link #load(String, String, String)}. When the request
+     * is sent, the other lists of the page are requested too after the same project open, so that their
+     * dropdowns are served from the same lookup.
+     *
+     * @param pageRequests list requests of the other dropdowns of the page
+     */
+    public Object load(String currentJob, String workspace, String request, Collection<String> pageRequests)
+            throws ParseException, IOException, ReqtifyException {
+        Map<String, Lookup> claimed = new LinkedHashMap<>();
+        CompletableFuture<Object> future;
+        synchronized (this) {
+            future = lookup(workspace, request, claimed);
+            if (!claimed.isEmpty()) {
+                for (String pageRequest : pageRequests) {
+                    lookup(workspace, pageRequest, claimed);
+                }
+            }
+        }
+        if (!claimed.isEmpty()) {
+            fetch(currentJob, workspace, claimed);
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt(); // Restore interrupted status
+            throw new InterruptedIOException("Interrupted while waiting for Reqtify");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ParseException) {
+                throw (ParseException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof ReqtifyException) {
+                throw (ReqtifyException) cause;
+            }
+            throw (RuntimeException) cause;
+        }
+    }
+
+    /**
+     * Returns the answer of the request in flight or completed recently, or else claims the request
+     * for the caller.
+     */
+    private CompletableFuture<Object> lookup(String workspace, String request, Map<String, Lookup> claimed) {
+        String key = workspace + "\n" + request;
+        Lookup lookup = lookups.get(key);
+        if (lookup == null
+                || (lookup.future.isDone() && System.currentTimeMillis() - lookup.completedAt > REUSE_MILLIS)) {
+            lookup = new Lookup();
+            lookups.put(key, lookup);
+            claimed.put(request, lookup);
+        }
+        return lookup.future;
+    }
+
+    private void fetch(String currentJob, String workspace, Map<String, Lookup> claimed) {
+        Exception failure = null;
+        try {
+            ReqtifyInstance instance = Utils.initReqtifyProcess(ReqtifyLane.INTERACTIVE, workspace);
+            // An instance has only one project open at a time
+            synchronized (instanceLocks.computeIfAbsent(instance.getKey(), key -> new Object())) {
+                ReqtifySession session = new ReqtifySession(instance, currentJob, null);
+                try {
+                    session.openProject(workspace);
+                    for (Map.Entry<String, Lookup> entry : claimed.entrySet()) {
+                        entry.getValue().future.complete(session.call(entry.getKey(), false));
+                    }
+                } catch (ReqtifyException re) {
+                    if (re.getMessage().length() > 0) {
+                        throw re;
+                    }
+                    ReqtifyData.registry.retire(instance);
+                    throw new ReqtifyException(ReqtifyData.utils.getLastLineOfFile(instance.getLogFile()));
+                }
+            }
+        } catch (ParseException | IOException | ReqtifyException | RuntimeException e) {
+            failure = e;
+        } finally {
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                for (Lookup lookup : claimed.values()) {
+                    // Never leave the waiters hanging
+                    lookup.future.completeExceptionally(
+                            failure != null ? failure : new IOException("Reqtify request failed"));
+                    lookup.completedAt = now;
+                }
+                Iterator<Lookup> itr = lookups.values().iterator();
+                while (itr.hasNext()) {
+                    Lookup lookup = itr.next();
+                    if (lookup.future.isCompletedExceptionally()
+                            || (lookup.future.isDone() && now - lookup.completedAt > REUSE_MILLIS)) {
+                        itr.remove();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.Job;
+import hudson.model.Project;
+import hudson.model.Queue;
+import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.QueueTaskDispatcher;
+import hudson.model.queue.SubTask;
+import hudson.model.queue.WorkUnit;
+import hudson.tasks.Builder;
+import jenkins.model.Jenkins;
+
+/**
+ * Keeps the builds using Reqtify in the queue while every lease on the build instances is taken,
+ * instead of letting them occupy an executor while they wait for Reqtify.
+ * A running build holds one lease from the moment it gets an executor until it completes.
+ *
+ * @author Dassault Systèmes
+ */
+@Extension
+public class ReqtifyQueueTaskDispatcher extends QueueTaskDispatcher {
+
+    @Override
+    public CauseOfBlockage canRun(Queue.Item item) {
+        if (!ReqtifyGlobalConfiguration.get().isQueueBuilds() || !usesReqtify(item.task)) {
+            return null;
+        }
+        int capacity = getCapacity();
+        if (capacity == 0) {
+            // Nothing would ever free up, let the build start and report the configuration error
+            return null;
+        }
+        int leases = countLeases();
+        return leases < capacity ? null : new WaitingForReqtify(leases, capacity);
+    }
+
+    /**
+     * Number of builds allowed to use Reqtify at the same time, on the local build instances and the
+     * remote endpoints that passed their last health check.
+     */
+    static int getCapacity() {
+        ReqtifyGlobalConfiguration config = ReqtifyGlobalConfiguration.get();
+        int capacity = config.getInstances(ReqtifyLane.BUILD) * config.getMaxConcurrentRequests(ReqtifyLane.BUILD);
+        for (ReqtifyInstance remote : ReqtifyData.registry.getRemoteInstances()) {
+            if (remote.isProcessAlive()) {
+                capacity += remote.getAdmissionQueue().getMaxInFlight();
+            }
+        }
+        return capacity;
+    }
+
+    /**
+     * Returns whether the task is a job with a Reqtify build step or declaring {@link ReqtifyJobProperty}.
+     */
+    static boolean usesReqtify(SubTask task) {
+        if (task instanceof Project) {
+            for (Builder builder : ((Project<?, ?>) task).getBuilders()) {
+                if (builder instanceof CallFunction || builder instanceof ReqtifyGenerateReport) {
+                    return true;
+                }
+            }
+        }
+        return task instanceof Job && ((Job<?, ?>) task).getProperty(ReqtifyJobProperty.class) != null;
+    }
+
+    private static int countLeases() {
+        int leases = 0;
+        for (Computer computer : Jenkins.get().getComputers()) {
+            for (Executor executor : computer.getAllExecutors()) {
+                WorkUnit workUnit = executor.getCurrentWorkUnit();
+                if (workUnit != null && usesReqtify(workUnit.work)) {
+                    leases++;
+                }
+            }
+        }
+        // Builds allowed earlier in the same queue maintenance have not started yet
+        for (Queue.BuildableItem item : Queue.getInstance().getPendingItems()) {
+            if (usesReqtify(item.task)) {
+                leases++;
+            }
+        }
+        return leases;
+    }
+
+    private static final class WaitingForReqtify extends CauseOfBlockage {
+
+        private final int leases;
+        private final int capacity;
+
+        WaitingForReqtify(int leases, int capacity) {
+            this.leases = leases;
+            this.capacity = capacity;
+        }
+
+        @Override
+        public String getShortDescription() {
+            return "Waiting for Reqtify: " + leases + " of " + capacity + " builds are already using it";
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Maximum number of Reqtify leases held at the same time by the builds of a folder or a job.
+ *
+ * @author Dassault Systèmes
+ */
+public class ReqtifyQuota extends AbstractDescribableImpl<ReqtifyQuota> {
+
+    private final String path;
+    private final int maxLeases;
+
+    /**
+     * @param path full name of a folder or a job, e.g. {@code team/project}
+     * @param maxLeases number of build steps of the folder or job allowed to use Reqtify at the same time
+     */
+    @DataBoundConstructor
+    public ReqtifyQuota(String path, int maxLeases) {
+        this.path = path.trim().replaceAll("^/+|/+$", "");
+        this.maxLeases = Math.max(1, maxLeases);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public int getMaxLeases() {
+        return maxLeases;
+    }
+
+    /**
+     * Returns whether the job is the quota's job or lies in the quota's folder.
+     */
+    public boolean matches(String jobFullName) {
+        return jobFullName.equals(path) || jobFullName.startsWith(path + "/");
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<ReqtifyQuota> {
+
+        @Override
+        public String getDisplayName() {
+            return "Quota";
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import hudson.FilePath;
+import hudson.util.AtomicFileWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Results of function calls marked as cacheable, keyed by the request and a fingerprint of the project
+ * inputs, so that a query on an unchanged project is answered without Reqtify. The least recently
+ * used entries are evicted beyond the configured size. The cache is persisted on the controller in the
+ * background, shortly after it changes.
+ * <p>
+ * Files written by the plugin, such as reports and function outputs, are remembered and left out of the
+ * fingerprint: a build writing them into the workspace does not change the project inputs.
+ *
+ * @author Dassault Systèmes
+ */
+public class ReqtifyResultCache {
+
+    private static final Logger LOGGER = Logger.getLogger(ReqtifyResultCache.class.getName());
+    private static final String CACHE_FILE = "reqtify-result-cache.json";
+    // Larger results are not worth keeping in memory and on disk
+    private static final int MAX_RESULT_LENGTH = 1024 * 1024;
+    private static final int MAX_OUTPUTS = 1000;
+    // Coalesces the changes of concurrent builds into one write
+    private static final long SAVE_DELAY = 1000;
+
+    // Access order, the first entry is the least recently used
+    private final Map<String, String> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Absolute paths of the files written by the plugin, the first one is the oldest
+    private final Map<String, Boolean> outputs = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_OUTPUTS;
+        }
+    };
+    private final Object saveLock = new Object();
+    private boolean loaded;
+    private boolean savePending;
+
+    /**
+     * Returns the cache key of a function call on the project of a workspace.
+     *
+     * @param request function name and arguments, as sent to Reqtify
+     */
+    public static String key(String request, String workspace) throws IOException {
+        return fingerprint(workspace) + " " + request;
+    }
+
+    /**
+     * Returns the cached result, or null.
+     */
+    public synchronized Object get(String key) {
+        load();
+        String json = entries.get(key);
+        if (json == null) {
+            return null;
+        }
+        try {
+            return new JSONParser().parse(json);
+        } catch (ParseException e) {
+            entries.remove(key);
+            return null;
+        }
+    }
+
+    public synchronized void put(String key, Object result) {
+        String json = JSONValue.toJSONString(result);
+        if (json.length() > MAX_RESULT_LENGTH) {
+            return;
+        }
+        load();
+        entries.put(key, json);
+        int maxEntries = ReqtifyGlobalConfiguration.get().getResultCacheSize();
+        Iterator<String> eldest = entries.keySet().iterator();
+        while (entries.size() > maxEntries && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+        scheduleSave();
+    }
+
+    /**
+     * Remembers a file written by the plugin, so that it is not taken for a project input.
+     */
+    public void registerOutput(FilePath file) {
+        String path = normalize(Paths.get(file.getRemote()));
+        synchronized (this) {
+            load();
+            if (outputs.put(path, Boolean.TRUE) == null) {
+                scheduleSave();
+            }
+        }
+    }
+
+    synchronized boolean isOutput(Path file) {
+        load();
+        return outputs.containsKey(normalize(file));
+    }
+
+    private static String normalize(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * Hashes the path, size and modification time of the project inputs of the workspace, that is the
+     * files matching the configured patterns, or all files outside of version control directories, except
+     * the outputs of the plugin.
+     */
+    static String fingerprint(String workspace) throws IOException {
+        return fingerprint(workspace, false);
+    }
+
+    /**
+     * Hashes the path and content of the project inputs, so that two checkouts of the same commit have
+     * the same fingerprint.
+     */
+    static String contentFingerprint(String workspace) throws IOException {
+        return fingerprint(workspace, true);
+    }
+
+    private static String fingerprint(String workspace, boolean content) throws IOException {
+        Path root = Paths.get(workspace);
+        List<PathMatcher> matchers = new ArrayList<>();
+        for (String pattern : ReqtifyGlobalConfiguration.get().getResultCacheInputs().split(",")) {
+            if (!pattern.trim().isEmpty()) {
+                matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern.trim()));
+            }
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile)
+                    .map(root::relativize)
+                    .filter(path -> matchers.isEmpty()
+                            ? !path.toString().matches("(^|.*[/\\\\])\\.(git|svn|hg)([/\\\\].*)?")
+                            : matchers.stream().anyMatch(matcher -> matcher.matches(path)))
+                    .filter(path -> !ReqtifyData.resultCache.isOutput(root.resolve(path)))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            BasicFileAttributes attributes = Files.readAttributes(root.resolve(file), BasicFileAttributes.class);
+            if (content) {
+                digest.update((file + "\n" + attributes.size() + "\n").getBytes(StandardCharsets.UTF_8));
+                try (InputStream in = Files.newInputStream(root.resolve(file))) {
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        digest.update(buffer, 0, read);
+                    }
+                }
+            } else {
+                String entry =
+                        file + "\n" + attributes.size() + "\n" + attributes.lastModifiedTime().toMillis() + "\n";
+                digest.update(entry.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        File file = getCacheFile();
+        if (file == null || !file.exists()) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            Object stored = new JSONParser().parse(reader);
+            // Older versions only stored the entries
+            JSONArray storedEntries =
+                    stored instanceof JSONArray ? (JSONArray) stored : (JSONArray) ((JSONObject) stored).get("entries");
+            for (Object item : storedEntries) {
+                JSONArray entry = (JSONArray) item;
+                entries.put((String) entry.get(0), (String) entry.get(1));
+            }
+            if (stored instanceof JSONObject && ((JSONObject) stored).get("outputs") != null) {
+                for (Object output : (JSONArray) ((JSONObject) stored).get("outputs")) {
+                    outputs.put((String) output, Boolean.TRUE);
+                }
+            }
+        } catch (IOException | ParseException | ClassCastException e) {
+            LOGGER.log(Level.WARNING, "Ignoring unreadable Reqtify result cache " + file, e);
+        }
+    }
+
+    private synchronized void scheduleSave() {
+        if (!savePending && getCacheFile() != null) {
+            savePending = true;
+            Timer.get().schedule(this::save, SAVE_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void save() {
+        File file = getCacheFile();
+        if (file == null) {
+            return;
+        }
+        // Pairs in access order, so that the recency survives a restart
+        JSONArray storedEntries = new JSONArray();
+        JSONArray storedOutputs = new JSONArray();
+        synchronized (this) {
+            savePending = false;
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                JSONArray pair = new JSONArray();
+                pair.add(entry.getKey());
+                pair.add(entry.getValue());
+                storedEntries.add(pair);
+            }
+            storedOutputs.addAll(outputs.keySet());
+        }
+        JSONObject stored = new JSONObject();
+        stored.put("entries", storedEntries);
+        stored.put("outputs", storedOutputs);
+        // Written outside of the cache lock, builds keep reading and adding results meanwhile
+        synchronized (saveLock) {
+            // Written to a temporary file first, a crash while saving keeps the previous cache
+            try {
+                AtomicFileWriter writer = new AtomicFileWriter(file.toPath(), StandardCharsets.UTF_8);
+                try {
+                    stored.writeJSONString(writer);
+                    writer.commit();
+                } finally {
+                    writer.abort();
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to save the Reqtify result cache to " + file, e);
+            }
+        }
+    }
+
+    private static File getCacheFile() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        return jenkins == null ? null : new File(jenkins.getRootDir(), CACHE_FILE);
+    }
+}
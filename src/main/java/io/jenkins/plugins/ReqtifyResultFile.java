@@ -0,0 +1,196 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import hudson.FilePath;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Streams the answer of a function call to a file of the workspace instead of keeping it in memory.
+ * In JSON format the answer is copied as is. In JSON Lines format each element of a top-level array
+ * is written on its own line, so only one element is held in memory at a time.
+ *
+ * @author Dassault Systèmes
+ */
+public class ReqtifyResultFile implements ReqtifyResponseHandler {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final FilePath file;
+    private final boolean jsonLines;
+    private long records;
+
+    public ReqtifyResultFile(FilePath file, boolean jsonLines) {
+        this.file = file;
+        this.jsonLines = jsonLines;
+        // Not a project input of the next builds
+        ReqtifyData.resultCache.registerOutput(file);
+    }
+
+    /**
+     * @return a map with the {@code path}, {@code size} and number of {@code records} of the file
+     */
+    @Override
+    public Object handle(Reader response) throws IOException, ParseException {
+        records = 0;
+        try {
+            FilePath parent = file.getParent();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            // Overwrites the content of a previous attempt
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(file.write(), StandardCharsets.UTF_8))) {
+                if (jsonLines) {
+                    new JSONParser().parse(response, new LineWriter(writer));
+                } else {
+                    char[] buffer = new char[BUFFER_SIZE];
+                    int read;
+                    while ((read = response.read(buffer)) != -1) {
+                        writer.write(buffer, 0, read);
+                    }
+                    records = 1;
+                }
+            }
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("path", file.getRemote());
+            summary.put("size", file.length());
+            summary.put("records", records);
+            return summary;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // Restore interrupted status
+            throw new InterruptedIOException("Interrupted while writing " + file.getRemote());
+        }
+    }
+
+    /**
+     * Returns the console summary of a file written by {@link #handle}.
+     */
+    public static String summarize(Object summary) {
+        Map<?, ?> map = (Map<?, ?>) summary;
+        return "written to " + map.get("path") + " (" + map.get("size") + " bytes, " + map.get("records")
+                + " records)";
+    }
+
+    /**
+     * Rebuilds each element of the top-level array, or the top-level value itself, and writes it as
+     * one line.
+     */
+    private class LineWriter implements ContentHandler {
+
+        private final Writer writer;
+        private final Deque<Object> containers = new ArrayDeque<>();
+        private final Deque<String> keys = new ArrayDeque<>();
+        private int depth;
+        private boolean topLevelArray;
+
+        LineWriter(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void startJSON() {}
+
+        @Override
+        public void endJSON() {}
+
+        @Override
+        public boolean startObject() {
+            containers.push(new JSONObject());
+            depth++;
+            return true;
+        }
+
+        @Override
+        public boolean endObject() throws IOException {
+            depth--;
+            add(containers.pop());
+            return true;
+        }
+
+        @Override
+        public boolean startObjectEntry(String key) {
+            keys.push(key);
+            return true;
+        }
+
+        @Override
+        public boolean endObjectEntry() {
+            return true;
+        }
+
+        @Override
+        public boolean startArray() {
+            if (depth++ == 0) {
+                topLevelArray = true;
+            } else {
+                containers.push(new JSONArray());
+            }
+            return true;
+        }
+
+        @Override
+        public boolean endArray() throws IOException {
+            if (--depth > 0 || !topLevelArray) {
+                add(containers.pop());
+            }
+            return true;
+        }
+
+        @Override
+        public boolean primitive(Object value) throws IOException {
+            add(value);
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void add(Object value) throws IOException {
+            Object parent = containers.peek();
+            if (parent instanceof JSONObject) {
+                ((JSONObject) parent).put(keys.pop(), value);
+            } else if (parent instanceof JSONArray) {
+                ((JSONArray) parent).add(value);
+            } else {
+                JSONValue.writeJSONString(value, writer);
+                writer.write('\n');
+                records++;
+            }
+        }
+    }
+}
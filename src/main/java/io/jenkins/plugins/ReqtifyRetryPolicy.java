@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether a failed request to Reqtify may be sent again and how long to wait before doing so.
+ * A refused connection never reached Reqtify and is always retried; any other transport failure
+ * (read timeout, reset while reading the response) is only retried for idempotent endpoints.
+ *
+ * @author Dassault Systèmes
+ */
+public class ReqtifyRetryPolicy {
+
+    private static final Set<String> IDEMPOTENT_ENDPOINTS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "openProject",
+            "getFunctions",
+            "getFunctionParameterValues",
+            "getReportModels",
+            "getReportTemplates",
+            "getReportParameterValues",
+            "getProjectFilterNames",
+            "setProjectFilterName")));
+
+    private final int maxAttempts;
+    private final long initialDelay;
+    private final long maxDelay;
+
+    public ReqtifyRetryPolicy(int maxAttempts, long initialDelay, long maxDelay) {
+        this.maxAttempts = maxAttempts;
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    public static ReqtifyRetryPolicy fromConfiguration() {
+        ReqtifyGlobalConfiguration config = ReqtifyGlobalConfiguration.get();
+        return new ReqtifyRetryPolicy(
+                config.getRetryMaxAttempts(), config.getRetryInitialDelay(), config.getRetryMaxDelay());
+    }
+
+    public static boolean isIdempotent(String targetURL) {
+        return IDEMPOTENT_ENDPOINTS.contains(Utils.getEndpoint(targetURL));
+    }
+
+    /**
+     * Whether a request may be sent again to a new instance after the previous one crashed. Report generation
+     * only rewrites its output file, so unlike a transport retry it is safe once the old process is gone.
+     */
+    public static boolean isReplayable(String targetURL) {
+        return isIdempotent(targetURL) || "generateReport".equals(Utils.getEndpoint(targetURL));
+    }
+
+    /**
+     * @param attempt number of attempts already made, starting at 1
+     */
+    public boolean shouldRetry(IOException failure, String targetURL, int attempt) {
+        if (attempt >= maxAttempts) {
+            return false;
+        }
+        return failure instanceof ConnectException || isIdempotent(targetURL);
+    }
+
+    /**
+     * Exponential backoff with full jitter, so that callers failing together do not retry together.
+     */
+    public long backoffDelay(int attempt) {
+        long ceiling = initialDelay << Math.min(attempt - 1, 20);
+        if (ceiling <= 0 || ceiling > maxDelay) {
+            ceiling = maxDelay;
+        }
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+}
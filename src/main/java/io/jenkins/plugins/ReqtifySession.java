@@ -0,0 +1,331 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Sequence of requests sent to a Reqtify instance on behalf of one build step or configuration page.
+ * When failover is enabled and the instance terminates abnormally, replayable requests are sent again
+ * to a freshly launched instance after re-opening the project.
+ * Build sessions hold a lease from {@link ReqtifyLeaseManager} until they are closed. A session may be
+ * shared by the parallel branches of a {@code reqtifySession} block: it holds a single lease, so their
+ * requests are sent one at a time.
+ *
+ * @author Dassault Systèmes
+ */
+public class ReqtifySession implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(ReqtifySession.class.getName());
+    private static final long REPORTED_QUEUE_WAIT = 1000;
+    private static final String OPEN_PROJECT = "openProject?dir=";
+
+    private final ReqtifyLane lane;
+    private final String jobKey;
+    private final TaskListener listener;
+    private final List<String> setupRequests = new ArrayList<>();
+    private ReqtifyInstance instance;
+    private String project;
+    private String openedProject;
+    // Name of each report in the shared report directory, by name in the workspace
+    private final Map<String, String> sharedReportNames = new HashMap<>();
+    private final ReqtifyLeaseManager.Lease lease;
+    private int failovers;
+    // Per thread, so that the steps of parallel branches sharing the session keep their own timeout
+    private final ThreadLocal<Long> deadline = ThreadLocal.withInitial(() -> 0L);
+
+    /**
+     * @param lane pool of instances to use
+     * @param jobKey full name of the job the requests are sent for, used to share the instance fairly
+     * @param listener build listener, or null outside of a build
+     */
+    public ReqtifySession(ReqtifyLane lane, String jobKey, TaskListener listener) throws IOException {
+        this.lane = lane;
+        this.jobKey = jobKey;
+        this.listener = listener;
+        if (lane == ReqtifyLane.BUILD) {
+            try {
+                lease = ReqtifyData.leases.acquire(jobKey, listener);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt(); // Restore interrupted status
+                throw new InterruptedIOException("Interrupted while waiting for a Reqtify lease");
+            }
+        } else {
+            lease = null;
+        }
+    }
+
+    public ReqtifySession(ReqtifyInstance instance, String jobKey, TaskListener listener) {
+        this.instance = instance;
+        this.lane = instance.getLane();
+        this.jobKey = jobKey;
+        this.listener = listener;
+        this.lease = null;
+    }
+
+    /**
+     * Returns the instance the requests are sent to, or null before the first request.
+     */
+    public synchronized ReqtifyInstance getInstance() {
+        return instance;
+    }
+
+    /**
+     * Releases the lease of the session, if any. May be called while a request is in flight, when the
+     * build is aborted.
+     */
+    @Override
+    public void close() {
+        if (lease != null) {
+            lease.close();
+        }
+    }
+
+    /**
+     * Starts the timeout of a build step: the requests the calling thread sends afterwards fail once it
+     * has elapsed.
+     *
+     * @param timeout timeout of the step in minutes, or 0 for the default of the global configuration
+     */
+    public void startTimeout(int timeout) {
+        int minutes = timeout > 0 ? timeout : ReqtifyGlobalConfiguration.get().getStepTimeout();
+        deadline.set(minutes > 0 ? System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(minutes) : 0L);
+    }
+
+    /**
+     * Opens the project, unless this session already opened it and no other session opened another
+     * project on the instance since. When it is the first request of the session, the instance that
+     * last opened the same project is preferred. Should another session open another project on the
+     * instance afterwards, the project is opened again before the next request of this session.
+     */
+    public synchronized void openProject(String currentWorkspace) throws ParseException, IOException, ReqtifyException {
+        if (instance != null
+                && currentWorkspace.equals(openedProject)
+                && currentWorkspace.equals(instance.getLastProject())) {
+            return;
+        }
+        project = currentWorkspace;
+        call(OPEN_PROJECT + currentWorkspace, false);
+        openedProject = currentWorkspace;
+    }
+
+    /**
+     * Returns the URL-encoded path Reqtify should write a report to. A remote server writes it to the
+     * shared report directory when one is configured, and {@link #collectReport} then moves it to the
+     * workspace. Must be called after the project is opened.
+     */
+    public synchronized String getReportOutputPath(String workspace, String fileName) throws IOException {
+        String directory = workspace;
+        String outputName = fileName;
+        String sharedDirectory = ReqtifyGlobalConfiguration.get().getSharedReportDirectory();
+        if (instance != null && instance.isRemote() && !sharedDirectory.isEmpty()) {
+            directory = sharedDirectory;
+            outputName = UUID.randomUUID() + "_" + fileName;
+            sharedReportNames.put(fileName, outputName);
+        }
+        return directory + "\\" + URLEncoder.encode(outputName, "UTF-8");
+    }
+
+    /**
+     * Moves the report written to the shared report directory, if any, to the workspace.
+     */
+    public void collectReport(FilePath workspace, String fileName) throws IOException, InterruptedException {
+        String sharedReportName;
+        synchronized (this) {
+            sharedReportName = sharedReportNames.remove(fileName);
+        }
+        if (sharedReportName == null) {
+            return;
+        }
+        FilePath report = new FilePath(
+                new File(ReqtifyGlobalConfiguration.get().getSharedReportDirectory(), sharedReportName));
+        report.copyTo(workspace.child(fileName));
+        report.delete();
+    }
+
+    /**
+     * Sends a request to the {@code /jenkins/} endpoints of Reqtify.
+     *
+     * @param request endpoint name followed by its query string, e.g. {@code getFunctions?}
+     */
+    public Object call(String request, boolean buildRequest) throws ParseException, IOException, ReqtifyException {
+        return call(request, buildRequest, null);
+    }
+
+    /**
+     * Sends a request and passes the body of the answer to the handler instead of parsing it.
+     *
+     * @param handler consumer of the answer, or null to parse it
+     */
+    public synchronized Object call(String request, boolean buildRequest, ReqtifyResponseHandler handler)
+            throws ParseException, IOException, ReqtifyException {
+        if (instance == null) {
+            instance = Utils.initReqtifyProcess(lane, project);
+        }
+        while (true) {
+            String targetURL = instance.getBaseUrl() + "/jenkins/" + request;
+            try {
+                Object result = send(request, targetURL, buildRequest, handler);
+                if (isSetupRequest(request)) {
+                    setupRequests.add(request);
+                }
+                return result;
+            } catch (ReqtifyException re) {
+                if (re.getMessage().length() > 0 || !canFailover(targetURL)) {
+                    throw re;
+                }
+                failover();
+            }
+        }
+    }
+
+    private Object send(String request, String targetURL, boolean buildRequest, ReqtifyResponseHandler handler)
+            throws ParseException, IOException, ReqtifyException {
+        ReqtifyAdmissionQueue admissionQueue = instance.getAdmissionQueue();
+        long queueWait;
+        try {
+            queueWait = admissionQueue.acquire(jobKey);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt(); // Restore interrupted status
+            throw new InterruptedIOException("Interrupted while waiting for Reqtify");
+        }
+        try {
+            recordQueueWait(targetURL, queueWait);
+            long stepDeadline = deadline.get();
+            boolean opening = request.startsWith(OPEN_PROJECT);
+            String requestProject = opening ? request.substring(OPEN_PROJECT.length()) : openedProject;
+            if (requestProject == null) {
+                return ReqtifyData.utils.executeGET(targetURL, instance, buildRequest, handler, stepDeadline);
+            }
+            boolean reopen;
+            try {
+                reopen = instance.enterProject(requestProject);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt(); // Restore interrupted status
+                throw new InterruptedIOException("Interrupted while waiting for Reqtify");
+            }
+            try {
+                if (reopen && !opening) {
+                    reopenProject(stepDeadline);
+                }
+                Object result = ReqtifyData.utils.executeGET(targetURL, instance, buildRequest, handler, stepDeadline);
+                if (opening) {
+                    setLastProject(requestProject);
+                }
+                return result;
+            } finally {
+                instance.exitProject();
+            }
+        } finally {
+            admissionQueue.release();
+        }
+    }
+
+    /**
+     * Opens the project of the session again, with its filter, after another session opened another
+     * project on the instance. Called while no request on another project runs on the instance.
+     */
+    private void reopenProject(long stepDeadline) throws ParseException, IOException, ReqtifyException {
+        LOGGER.log(Level.FINE, "Opening {0} again on Reqtify port {1}", new Object[] {
+            openedProject, instance.getPort()
+        });
+        String baseUrl = instance.getBaseUrl() + "/jenkins/";
+        ReqtifyData.utils.executeGET(baseUrl + OPEN_PROJECT + openedProject, instance, false, null, stepDeadline);
+        setLastProject(openedProject);
+        for (String request : setupRequests) {
+            if (!request.startsWith(OPEN_PROJECT)) {
+                ReqtifyData.utils.executeGET(baseUrl + request, instance, false, null, stepDeadline);
+            }
+        }
+    }
+
+    private void setLastProject(String currentWorkspace) {
+        if (!currentWorkspace.equals(instance.getLastProject())) {
+            instance.setLastProject(currentWorkspace);
+            ReqtifyData.registry.save();
+        }
+    }
+
+    private void recordQueueWait(String targetURL, long queueWait) {
+        String endpoint = Utils.getEndpoint(targetURL);
+        LOGGER.log(Level.FINE, "{0} request from {1} waited {2} ms for Reqtify on port {3}", new Object[] {
+            endpoint, jobKey, queueWait, instance.getPort()
+        });
+        if (listener != null && queueWait >= REPORTED_QUEUE_WAIT) {
+            listener.getLogger()
+                    .println("Waited " + (queueWait / 1000) + " s for Reqtify to become available (" + endpoint + ")");
+        }
+    }
+
+    private boolean canFailover(String targetURL) {
+        ReqtifyGlobalConfiguration config = ReqtifyGlobalConfiguration.get();
+        return config.isFailoverEnabled()
+                && failovers < config.getFailoverMaxAttempts()
+                && ReqtifyRetryPolicy.isReplayable(targetURL);
+    }
+
+    private void failover() throws ParseException, IOException, ReqtifyException {
+        failovers++;
+        ReqtifyInstance crashed = instance;
+        ReqtifyData.registry.retire(crashed);
+        if (listener != null) {
+            listener.getLogger()
+                    .println("Reqtify terminated abnormally, retrying on a new instance (attempt " + failovers + "):");
+            listener.getLogger().println(ReqtifyData.utils.getLastLineOfFile(crashed.getLogFile()));
+        }
+        // The crashed instance may have last opened the project of another session
+        String sessionProject = openedProject != null ? openedProject : project;
+        instance = Utils.initReqtifyProcess(lane, sessionProject);
+
+        List<String> replay = new ArrayList<>(setupRequests);
+        setupRequests.clear();
+        if (sessionProject != null) {
+            openedProject = null;
+            openProject(sessionProject);
+        }
+        for (String request : replay) {
+            if (!request.startsWith(OPEN_PROJECT)) {
+                call(request, false);
+            }
+        }
+    }
+
+    private static boolean isSetupRequest(String request) {
+        return request.startsWith("openProject?") || request.startsWith("setProjectFilterName?");
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import com.google.common.collect.ImmutableSet;
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jenkinsci.plugins.workflow.steps.BodyExecutionCallback;
+import org.jenkinsci.plugins.workflow.steps.GeneralNonBlockingStepExecution;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Block step holding one Reqtify session, with its lease and open project, for the
+ * {@code reqtifyFunction} and {@code reqtifyReport} steps nested in it. A block nested in another
+ * {@code reqtifySession} block uses the session of the outer one:
+ * <pre>
+ * reqtifySession {
+ *     reqtifyFunction functionName: 'checkCoverage'
+ *     reqtifyReport nameReport: 'coverage', modelReport: 'Coverage', templateReport: 'Coverage.docx'
+ * }
+ * </pre>
+ *
+ * @author Dassault Systèmes
+ */
+public class ReqtifySessionStep extends Step {
+
+    @DataBoundConstructor
+    public ReqtifySessionStep() {}
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new ReqtifySessionStepExecution(context);
+    }
+
+    /**
+     * Returns the session of the enclosing {@code reqtifySession} block, or null.
+     */
+    static ReqtifySession getEnclosingSession(StepContext context) throws Exception {
+        Handle handle = context.get(Handle.class);
+        return handle != null ? handle.getSession() : null;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public String getFunctionName() {
+            return "reqtifySession";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Reqtify: Session";
+        }
+
+        @Override
+        public boolean takesImplicitBlockArgument() {
+            return true;
+        }
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return ImmutableSet.of(Run.class, TaskListener.class);
+        }
+    }
+
+    /**
+     * Serializable reference to a session, passed to the nested steps through the block context.
+     * Sessions do not survive a restart of the controller; nested steps then use their own.
+     */
+    static final class Handle implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private static final Map<String, ReqtifySession> SESSIONS = new ConcurrentHashMap<>();
+
+        private final String id = UUID.randomUUID().toString();
+
+        Handle(ReqtifySession session) {
+            SESSIONS.put(id, session);
+        }
+
+        ReqtifySession getSession() {
+            return SESSIONS.get(id);
+        }
+
+        void close() {
+            ReqtifySession session = SESSIONS.remove(id);
+            if (session != null) {
+                session.close();
+            }
+        }
+    }
+
+    private static class ReqtifySessionStepExecution extends GeneralNonBlockingStepExecution {
+        private static final long serialVersionUID = 1L;
+
+        private volatile Handle handle;
+
+        ReqtifySessionStepExecution(StepContext context) {
+            super(context);
+        }
+
+        @Override
+        public boolean start() throws Exception {
+            // Waiting for a lease and launching Reqtify may take minutes, off the CPS VM thread
+            run(this::openSession);
+            return false;
+        }
+
+        private void openSession() throws Exception {
+            if (getEnclosingSession(getContext()) != null) {
+                // A nested block shares the session of the enclosing one, which alone holds the lease
+                getContext()
+                        .newBodyInvoker()
+                        .withCallback(BodyExecutionCallback.wrap(getContext()))
+                        .start();
+                return;
+            }
+            Run run = getContext().get(Run.class);
+            TaskListener listener = getContext().get(TaskListener.class);
+            ReqtifySession session = new ReqtifySession(ReqtifyLane.BUILD, run.getParent().getFullName(), listener);
+            Handle opened;
+            try {
+                session.openProject(Utils.getWorkspacePath(run.getParent().getName()));
+                opened = new Handle(session);
+            } catch (Exception e) {
+                session.close();
+                throw e;
+            }
+            handle = opened;
+            if (Thread.interrupted()) {
+                // Stopped while the project was opening, the body must not start
+                opened.close();
+                throw new InterruptedException();
+            }
+            getContext()
+                    .newBodyInvoker()
+                    .withContext(opened)
+                    .withCallback(new CloseSession(opened))
+                    .start();
+        }
+
+        @Override
+        public void stop(Throwable cause) throws Exception {
+            Handle current = handle;
+            if (current != null) {
+                current.close();
+            }
+            super.stop(cause);
+        }
+    }
+
+    private static class CloseSession extends BodyExecutionCallback.TailCall {
+        private static final long serialVersionUID = 1L;
+
+        private final Handle handle;
+
+        CloseSession(Handle handle) {
+            this.handle = handle;
+        }
+
+        @Override
+        protected void finished(StepContext context) {
+            handle.close();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Identical requests sent at the same time by several builds, for example by a branch and its pull request
+ * built on the same commit. The first build sends the request while the others wait for it and reuse its
+ * result. Requests are identical when they have the same endpoint and arguments on projects whose input
+ * files have the same content. Requests are only shared when the inputs of the result cache are configured,
+ * hashing the content of a whole workspace would cost more than most requests.
+ *
+ * @author Dassault Systèmes
+ */
+public class ReqtifySingleFlight {
+
+    private static final Logger LOGGER = Logger.getLogger(ReqtifySingleFlight.class.getName());
+
+    private final Map<String, Flight> flights = new HashMap<>();
+
+    private static final class Flight {
+        private boolean landed;
+        private int waiters;
+        private Object result;
+    }
+
+    /**
+     * Returns the key of a request on the project of a workspace, or null when identical requests are
+     * not shared or the inputs of the project are not configured.
+     *
+     * @param request endpoint name and arguments, without the paths specific to the workspace
+     */
+    public static String key(String request, String workspace) throws IOException {
+        ReqtifyGlobalConfiguration configuration = ReqtifyGlobalConfiguration.get();
+        if (!configuration.isShareIdenticalRequests() || configuration.getResultCacheInputs().isEmpty()) {
+            return null;
+        }
+        return ReqtifyResultCache.contentFingerprint(workspace) + " " + request;
+    }
+
+    /**
+     * Waits for the identical request in flight, if any, and returns its result. Returns null when the
+     * caller has to send the request itself, in which case it must {@link #land} it, even on failure.
+     */
+    public Object await(String key, TaskListener listener) throws InterruptedException {
+        if (key == null) {
+            return null;
+        }
+        boolean reported = false;
+        synchronized (this) {
+            while (true) {
+                Flight flight = flights.get(key);
+                if (flight == null) {
+                    flights.put(key, new Flight());
+                    return null;
+                }
+                if (!reported && listener != null) {
+                    listener.getLogger().println("Waiting for the identical Reqtify request of another build");
+                    reported = true;
+                }
+                flight.waiters++;
+                try {
+                    while (!flight.landed) {
+                        wait();
+                    }
+                } finally {
+                    flight.waiters--;
+                }
+                // When the other build failed, send the request again
+                if (flight.result != null) {
+                    return flight.result;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the content of a report generated after {@link #await}, to {@link #land} for the builds
+     * waiting for it, or null when none is waiting. The content is handed over rather than the file, which
+     * the next build of the job may overwrite or delete before the waiting builds copy it.
+     */
+    public Object reportContent(String key, FilePath report) throws InterruptedException {
+        synchronized (this) {
+            Flight flight = key != null ? flights.get(key) : null;
+            if (flight == null || flight.waiters == 0) {
+                return null;
+            }
+        }
+        try (InputStream in = report.read()) {
+            return IOUtils.toByteArray(in);
+        } catch (IOException e) {
+            // The waiting builds generate the report themselves
+            LOGGER.log(Level.WARNING, "Unable to share the report " + report.getRemote(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Hands the result of a request sent after {@link #await} to the waiting builds.
+     *
+     * @param result result of the request, or null when it failed
+     */
+    public synchronized void land(String key, Object result) {
+        if (key == null) {
+            return;
+        }
+        Flight flight = flights.remove(key);
+        if (flight != null) {
+            flight.landed = true;
+            flight.result = result;
+            notifyAll();
+        }
+    }
+}
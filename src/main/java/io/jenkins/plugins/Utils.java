@@ -32,27 +32,36 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.net.ConnectException;
 import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.GZIPInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import jenkins.model.Jenkins;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 import org.kohsuke.stapler.Stapler;
@@ -66,6 +75,9 @@ import org.xml.sax.SAXException;
  */
 public class Utils {
 
+    // Reqtify runs on the controller or on a nearby server, a slower connection means it is unreachable
+    private static final int CONNECT_TIMEOUT = 30000;
+
     public static String findReqtifyPath() throws IOException {
         String path;
         Process proc = Runtime.getRuntime().exec("reg query HKCR\\Reqtify.Application\\CLSID");
@@ -96,28 +108,143 @@ public class Utils {
         }
     }
 
-    @edu.umd.cs.findbugs.annotations.SuppressFBWarnings("ST_WRITE_TO_STATIC_FROM_INSTANCE_METHOD")
-    public Object executeGET(String targetURL, Process reqtifyProcess, boolean buildRequest)
+    public Object executeGET(String targetURL, ReqtifyInstance instance, boolean buildRequest)
+            throws ParseException, IOException, ReqtifyException {
+        return executeGET(targetURL, instance, buildRequest, Utils::parseResponse);
+    }
+
+    /**
+     * Sends the request and passes the body of the answer to the handler, so that large answers can be
+     * streamed instead of parsed in memory.
+     */
+    public Object executeGET(
+            String targetURL, ReqtifyInstance instance, boolean buildRequest, ReqtifyResponseHandler handler)
+            throws ParseException, IOException, ReqtifyException {
+        return executeGET(targetURL, instance, buildRequest, handler, 0);
+    }
+
+    /**
+     * Sends the request like {@link #executeGET(String, ReqtifyInstance, boolean, ReqtifyResponseHandler)}.
+     * The request is abandoned with a {@link ReqtifyTimeoutException} once the deadline has passed, and with an
+     * {@link InterruptedIOException} as soon as the calling thread is interrupted.
+     *
+     * @param handler consumer of the answer, or null to parse it
+     * @param deadline time in milliseconds after which the request is abandoned, or 0 for none
+     */
+    public Object executeGET(
+            String targetURL,
+            ReqtifyInstance instance,
+            boolean buildRequest,
+            ReqtifyResponseHandler handler,
+            long deadline)
+            throws ParseException, IOException, ReqtifyException {
+        if (deadline > 0 && System.currentTimeMillis() >= deadline) {
+            // Not sent, says nothing about the health of Reqtify
+            throw new ReqtifyTimeoutException(timeoutMessage(targetURL));
+        }
+        ReqtifyCircuitBreaker circuitBreaker = instance.getCircuitBreaker();
+        if (!circuitBreaker.tryAcquire()) {
+            throw new ConnectException("Reqtify at " + instance.getBaseUrl() + " is not responding, requests are "
+                    + "suspended for " + (circuitBreaker.getRemainingOpenTime() / 1000) + " seconds");
+        }
+        instance.beginRequest();
+        long start = System.currentTimeMillis();
+        boolean failed = true;
+        try {
+            Object result = sendGET(
+                    targetURL, instance, buildRequest, handler != null ? handler : Utils::parseResponse, deadline);
+            failed = false;
+            instance.markReady();
+            if (instance.markServed()) {
+                ReqtifyData.registry.onFirstRequestServed(instance);
+            }
+            return result;
+        } catch (ReqtifyException | ParseException e) {
+            // Reqtify answered, the instance itself is healthy
+            failed = false;
+            throw e;
+        } finally {
+            // An aborted build says nothing about the health of Reqtify
+            circuitBreaker.onComplete(
+                    failed && !Thread.currentThread().isInterrupted(),
+                    System.currentTimeMillis() - start,
+                    ReqtifyCircuitBreaker.isLatencySensitive(targetURL));
+            instance.endRequest();
+        }
+    }
+
+    private Object sendGET(
+            String targetURL,
+            ReqtifyInstance instance,
+            boolean buildRequest,
+            ReqtifyResponseHandler handler,
+            long deadline)
             throws ParseException, IOException, ReqtifyException {
         HttpURLConnection connection = null;
+        ReqtifyCallWatchdog watchdog = null;
         Object result = null;
         boolean isConnected = false;
-        int MAX_CONNECTIONS_REQUESTS = 20;
+        ReqtifyRetryPolicy retryPolicy = ReqtifyRetryPolicy.fromConfiguration();
         int count = 0;
         InputStreamReader isr = null;
         BufferedReader br = null;
+        String latencyKey = ReqtifyLatencyTracker.key(targetURL, instance);
         while (!isConnected) {
+            // Raised after an attempt timed out
+            long hangTimeout = ReqtifyData.latencies.getTimeout(latencyKey);
+            boolean sent = false;
+            long sentAt = 0;
             try {
-                // Create connection
-                URL url = new URL(targetURL);
+                // Create connection, long arguments are sent in the body instead of the URL
+                int query = targetURL.indexOf('?');
+                int maxQueryLength = ReqtifyGlobalConfiguration.get().getMaxQueryLength();
+                byte[] body = null;
+                URL url;
+                if (query >= 0 && maxQueryLength > 0 && targetURL.length() - query - 1 > maxQueryLength) {
+                    url = new URL(targetURL.substring(0, query));
+                    body = targetURL.substring(query + 1).getBytes(StandardCharsets.UTF_8);
+                } else {
+                    url = new URL(targetURL);
+                }
                 connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("GET");
-                connection.setRequestProperty("Content-Type", "application/json");
-                connection.setRequestProperty("Cookie", ReqtifyData.cookie);
+                if (body != null) {
+                    connection.setRequestMethod("POST");
+                    connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+                    connection.setDoOutput(true);
+                    connection.setFixedLengthStreamingMode(body.length);
+                } else {
+                    connection.setRequestMethod("GET");
+                    connection.setRequestProperty("Content-Type", "application/json");
+                }
+                connection.setRequestProperty("Cookie", instance.getCookie());
+                if (instance.isRemote()) {
+                    // Worth the CPU over the network only, not on the controller itself
+                    connection.setRequestProperty("Accept-Encoding", "gzip");
+                }
+                connection.setConnectTimeout(CONNECT_TIMEOUT);
+                long readTimeout = hangTimeout;
+                if (deadline > 0) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new ReqtifyTimeoutException(timeoutMessage(targetURL));
+                    }
+                    connection.setConnectTimeout((int) Math.min(remaining, CONNECT_TIMEOUT));
+                    readTimeout = readTimeout > 0 ? Math.min(readTimeout, remaining) : remaining;
+                }
+                connection.setReadTimeout((int) Math.min(readTimeout, Integer.MAX_VALUE));
+                watchdog = new ReqtifyCallWatchdog(connection, deadline);
 
+                connection.connect();
+                if (body != null) {
+                    try (OutputStream out = connection.getOutputStream()) {
+                        out.write(body);
+                    }
+                }
+                sent = true;
+                sentAt = System.currentTimeMillis();
                 if (connection.getResponseCode() != 200) {
                     if (connection.getErrorStream() != null) {
-                        isr = new InputStreamReader(connection.getErrorStream(), "UTF-8");
+                        isr = new InputStreamReader(decode(connection, connection.getErrorStream()), "UTF-8");
                         br = new BufferedReader(isr);
                         StringBuilder errorResponse = new StringBuilder();
                         String line = "";
@@ -136,45 +263,80 @@ public class Utils {
                         throw new ReqtifyException(connection.getResponseMessage());
                     }
                 }
-                ReqtifyData.cookie = connection.getHeaderField("Set-Cookie");
+                ReqtifyData.latencies.record(latencyKey, System.currentTimeMillis() - sentAt);
+                String cookie = connection.getHeaderField("Set-Cookie");
+                if (cookie != null) {
+                    instance.setCookie(cookie);
+                }
                 isConnected = true;
-                isr = new InputStreamReader((connection.getInputStream()), "UTF-8");
+                isr = new InputStreamReader(decode(connection, connection.getInputStream()), "UTF-8");
                 br = new BufferedReader(isr);
 
                 if (targetURL.contains("openProject")) {
                     return result;
                 }
 
-                StringBuilder response = new StringBuilder();
-                String line;
-                while ((line = br.readLine()) != null) {
-                    response.append(line);
-                }
-                JSONParser parser = new JSONParser();
-                result = parser.parse(response.toString());
-                if (result.getClass().getName().contains("JSONArray")) {
-                    result = (JSONArray) parser.parse(response.toString());
-                } else if (result.getClass().getName().contains("JSONObject")) {
-                    result = (JSONObject) parser.parse(response.toString());
-                } else if (result.getClass().getName().contains("String")) {
-                    result = (String) parser.parse(response.toString());
-                }
+                result = handler.handle(br);
 
             } catch (MalformedURLException e) {
                 throw new MalformedURLException();
+            } catch (ReqtifyTimeoutException e) {
+                throw e;
             } catch (IOException e) {
-                if (!reqtifyProcess.isAlive() && reqtifyProcess.exitValue() == 1) {
+                if (watchdog != null && watchdog.isAborted()) {
+                    throw new InterruptedIOException("Request to Reqtify aborted: " + getEndpoint(targetURL));
+                }
+                if (watchdog != null && watchdog.isExpired()) {
+                    throw new ReqtifyTimeoutException(timeoutMessage(targetURL));
+                }
+                if (instance.hasTerminatedAbnormally()) {
                     // Normal termination of Reqtify
                     throw new ReqtifyException(""); // Abnormal termination of Reqtify
                 }
+                if (e instanceof SocketTimeoutException && sent && hangTimeout > 0) {
+                    // Lets the next requests wait longer when the project got slower
+                    ReqtifyData.latencies.recordTimeout(latencyKey, System.currentTimeMillis() - sentAt);
+                }
                 isConnected = false;
                 count++;
 
-                if (count > MAX_CONNECTIONS_REQUESTS) {
-                    // Write error
-                    throw new ConnectException();
+                if (!retryPolicy.shouldRetry(e, targetURL, count)) {
+                    if (e instanceof ConnectException) {
+                        if (instance.isRemote()) {
+                            // Skipped by the next builds until the health check reaches it again
+                            instance.markUnhealthy();
+                        }
+                        throw new ConnectException("Unable to connect to Reqtify at " + instance.getBaseUrl()
+                                + " after " + count + " attempts: " + e.getMessage());
+                    }
+                    if (e instanceof SocketTimeoutException && sent && hangTimeout > 0) {
+                        throw new SocketTimeoutException("Reqtify did not answer " + getEndpoint(targetURL)
+                                + " within " + (hangTimeout / 1000) + " s, it usually answers within "
+                                + (ReqtifyData.latencies.getPercentile(latencyKey) / 1000) + " s");
+                    }
+                    if (instance.isRemote()) {
+                        throw new IOException(
+                                "Request " + getEndpoint(targetURL) + " to Reqtify at " + instance.getBaseUrl()
+                                        + " failed: " + e.getMessage(),
+                                e);
+                    }
+                    throw e;
+                }
+                long delay = retryPolicy.backoffDelay(count);
+                if (deadline > 0 && System.currentTimeMillis() + delay >= deadline) {
+                    throw new ReqtifyTimeoutException(timeoutMessage(targetURL));
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt(); // Restore interrupted status
+                    throw new InterruptedIOException("Request to Reqtify aborted: " + getEndpoint(targetURL));
                 }
             } finally {
+                if (watchdog != null) {
+                    watchdog.close();
+                    watchdog = null;
+                }
                 if (connection != null) connection.disconnect();
 
                 if (isr != null) isr.close();
@@ -184,6 +346,75 @@ public class Utils {
         return result;
     }
 
+    /**
+     * Returns the body of an answer, decompressed while it is read when Reqtify sent it gzip encoded.
+     */
+    private static InputStream decode(HttpURLConnection connection, InputStream body) throws IOException {
+        if (!"gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+            return body;
+        }
+        // Fall back to the raw body when it is labelled as gzip but is not
+        PushbackInputStream in = new PushbackInputStream(body, 2);
+        int first = in.read();
+        int second = first < 0 ? -1 : in.read();
+        if (second >= 0) {
+            in.unread(second);
+        }
+        if (first >= 0) {
+            in.unread(first);
+        }
+        return first == 0x1f && second == 0x8b ? new GZIPInputStream(in) : in;
+    }
+
+    private static String timeoutMessage(String targetURL) {
+        return "Reqtify did not answer " + getEndpoint(targetURL) + " within the timeout of the build step";
+    }
+
+    private static Object parseResponse(Reader response) throws IOException, ParseException {
+        StringBuilder content = new StringBuilder();
+        BufferedReader reader = new BufferedReader(response);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            content.append(line);
+        }
+        return new JSONParser().parse(content.toString());
+    }
+
+    /**
+     * Converts a parsed Reqtify answer into plain maps, lists and scalars that can be returned to a
+     * pipeline.
+     */
+    public static Object toPipelineValue(Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                map.put(String.valueOf(entry.getKey()), toPipelineValue(entry.getValue()));
+            }
+            return map;
+        }
+        if (value instanceof List) {
+            List<Object> list = new ArrayList<>();
+            for (Object item : (List<?>) value) {
+                list.add(toPipelineValue(item));
+            }
+            return list;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the name of the Reqtify endpoint targeted by a request URL, e.g. "getFunctions".
+     */
+    public static String getEndpoint(String targetURL) {
+        int start = targetURL.indexOf("/jenkins/");
+        if (start < 0) {
+            return "";
+        }
+        start += "/jenkins/".length();
+        int end = targetURL.indexOf('?', start);
+        return end < 0 ? targetURL.substring(start) : targetURL.substring(start, end);
+    }
+
     public boolean isLocalPortFree(int port) {
         try {
             new ServerSocket(port).close();
@@ -193,6 +424,19 @@ public class Utils {
         }
     }
 
+    public boolean isLocalPortListening(int port) {
+        return isPortListening("localhost", port);
+    }
+
+    public boolean isPortListening(String host, int port) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), 200);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
     public int nextFreePort(int from, int to) {
         int port;
         while (true) {
@@ -223,6 +467,9 @@ public class Utils {
 
     public String getLastLineOfFile(String path) {
         Scanner scanner;
+        if (path == null) {
+            return ("File not found");
+        }
         try {
             scanner = new Scanner(new File(path), "utf-8");
         } catch (FileNotFoundException e) {
@@ -334,84 +581,7 @@ public class Utils {
         return currentWorkspace;
     }
 
-    public static void initReqtifyProcess() throws IOException {
-        String reqtifyLang = "eng";
-        int reqtifyPort;
-        String reqtifyPath = findReqtifyPath();
-        int maxWaitTime = 60000; // Maximum wait time in milliseconds (60 seconds)
-        int pollInterval = 5000; // Poll interval in milliseconds (5 seconds)
-        long startTime = System.currentTimeMillis();
-
-        while (System.currentTimeMillis() - startTime < maxWaitTime) {
-            try {
-                // Attempt to initialize the Reqtify process
-                if (ReqtifyData.reqtfyLanguageProcessMap.isEmpty()) {
-                    reqtifyPort = ReqtifyData.utils.nextFreePort(4000, 8000);
-                    String[] args = {
-                        reqtifyPath,
-                        "-http",
-                        String.valueOf(reqtifyPort),
-                        "-logfile",
-                        ReqtifyData.tempDir + "reqtifyLog_" + reqtifyPort + ".log",
-                        "-l",
-                        reqtifyLang,
-                        "-timeout",
-                        ReqtifyData.reqtifyTimeoutValue
-                    };
-                    Process proc = Runtime.getRuntime().exec(args);
-                    ReqtifyData.reqtfyLanguageProcessMap.put(reqtifyLang, proc);
-                    ReqtifyData.reqtifyLanguagePortMap.put(reqtifyLang, reqtifyPort);
-                    break;
-                } else if (!ReqtifyData.reqtfyLanguageProcessMap.containsKey(reqtifyLang)) {
-                    reqtifyPort = ReqtifyData.utils.nextFreePort(4000, 8000);
-                    String[] args = {
-                        reqtifyPath,
-                        "-http",
-                        String.valueOf(reqtifyPort),
-                        "-logfile",
-                        ReqtifyData.tempDir + "reqtifyLog_" + reqtifyPort + ".log",
-                        "-l",
-                        reqtifyLang,
-                        "-timeout",
-                        ReqtifyData.reqtifyTimeoutValue
-                    };
-                    Process proc = Runtime.getRuntime().exec(args);
-                    ReqtifyData.reqtfyLanguageProcessMap.put(reqtifyLang, proc);
-                    ReqtifyData.reqtifyLanguagePortMap.put(reqtifyLang, reqtifyPort);
-                    break;
-                } else {
-                    reqtifyPort = ReqtifyData.reqtifyLanguagePortMap.get(reqtifyLang);
-                    if (ReqtifyData.utils.isLocalPortFree(reqtifyPort)) {
-                        ReqtifyData.reqtfyLanguageProcessMap.remove(reqtifyLang);
-                        ReqtifyData.reqtifyLanguagePortMap.remove(reqtifyLang);
-                        reqtifyPort = ReqtifyData.utils.nextFreePort(4000, 8000);
-                        String[] args = {
-                            reqtifyPath,
-                            "-http",
-                            String.valueOf(reqtifyPort),
-                            "-logfile",
-                            ReqtifyData.tempDir + "reqtifyLog_" + reqtifyPort + ".log",
-                            "-l",
-                            reqtifyLang,
-                            "-timeout",
-                            ReqtifyData.reqtifyTimeoutValue
-                        };
-                        Process proc = Runtime.getRuntime().exec(args);
-                        ReqtifyData.reqtfyLanguageProcessMap.put(reqtifyLang, proc);
-                        ReqtifyData.reqtifyLanguagePortMap.put(reqtifyLang, reqtifyPort);
-                        break;
-                    }
-                }
-            } catch (IOException e) {
-                System.err.println(
-                        "Waiting to connect Reqtify server, retrying in " + (pollInterval / 1000) + " seconds...");
-                try {
-                    Thread.sleep(pollInterval);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt(); // Restore interrupted status
-                    throw new IOException(ie);
-                }
-            }
-        }
+    public static ReqtifyInstance initReqtifyProcess(ReqtifyLane lane, String project) throws IOException {
+        return ReqtifyData.registry.acquire(lane, project);
     }
 }
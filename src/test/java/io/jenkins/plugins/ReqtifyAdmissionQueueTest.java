@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class ReqtifyAdmissionQueueTest {
+
+    @Test
+    public void requestsWithinCapacityDoNotWait() throws Exception {
+        ReqtifyAdmissionQueue queue = new ReqtifyAdmissionQueue(2);
+        assertEquals(0, queue.acquire("a"));
+        assertEquals(0, queue.acquire("b"));
+        assertEquals(2, queue.getInFlight());
+        queue.release();
+        queue.release();
+        assertEquals(0, queue.getInFlight());
+    }
+
+    @Test
+    public void waitingJobsAreServedRoundRobin() throws Exception {
+        ReqtifyAdmissionQueue queue = new ReqtifyAdmissionQueue(1);
+        queue.acquire("holder");
+        List<String> served = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        // Job a queues two requests before job b queues one
+        for (String[] request : new String[][] {{"a", "a1"}, {"a", "a2"}, {"b", "b1"}}) {
+            Thread thread = new Thread(() -> {
+                try {
+                    queue.acquire(request[0]);
+                    served.add(request[1]);
+                    queue.release();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+            awaitWaiting(queue, threads.size());
+        }
+        queue.release();
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+        assertEquals(Arrays.asList("a1", "b1", "a2"), served);
+        assertEquals(0, queue.getInFlight());
+    }
+
+    @Test
+    public void interruptedRequestLeavesTheQueue() throws Exception {
+        ReqtifyAdmissionQueue queue = new ReqtifyAdmissionQueue(1);
+        queue.acquire("holder");
+        Thread thread = new Thread(() -> {
+            try {
+                queue.acquire("a");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        awaitWaiting(queue, 1);
+        thread.interrupt();
+        thread.join(10000);
+        assertEquals(0, queue.getWaiting());
+        queue.release();
+        assertEquals(0, queue.getInFlight());
+    }
+
+    private static void awaitWaiting(ReqtifyAdmissionQueue queue, int waiting) throws InterruptedException {
+        while (queue.getWaiting() < waiting) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ReqtifyCircuitBreakerTest {
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        ReqtifyCircuitBreaker breaker = new ReqtifyCircuitBreaker(3, 0, 60000);
+        for (int i = 0; i < 2; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onComplete(true, 0, true);
+        }
+        assertEquals(ReqtifyCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        breaker.onComplete(true, 0, true);
+        assertEquals(ReqtifyCircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.tryAcquire());
+        assertTrue(breaker.getRemainingOpenTime() > 0);
+    }
+
+    @Test
+    public void successResetsTheFailures() {
+        ReqtifyCircuitBreaker breaker = new ReqtifyCircuitBreaker(2, 0, 60000);
+        breaker.onComplete(true, 0, true);
+        breaker.onComplete(false, 0, true);
+        breaker.onComplete(true, 0, true);
+        assertEquals(ReqtifyCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void slowRequestsFailOnlyWhenLatencySensitive() {
+        ReqtifyCircuitBreaker breaker = new ReqtifyCircuitBreaker(1, 100, 60000);
+        breaker.onComplete(false, 1000, false);
+        assertEquals(ReqtifyCircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onComplete(false, 1000, true);
+        assertEquals(ReqtifyCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void onlyListingRequestsAreLatencySensitive() {
+        assertTrue(ReqtifyCircuitBreaker.isLatencySensitive("http://localhost:4000/jenkins/getFunctions?"));
+        assertTrue(ReqtifyCircuitBreaker.isLatencySensitive("http://localhost:4000/jenkins/getReportModels?"));
+        // Idempotent, but slow on a large project
+        assertFalse(ReqtifyCircuitBreaker.isLatencySensitive("http://localhost:4000/jenkins/openProject?dir=/ws"));
+        assertFalse(ReqtifyCircuitBreaker.isLatencySensitive("http://localhost:4000/jenkins/generateReport?"));
+    }
+
+    @Test
+    public void halfOpenLetsOneProbeThrough() {
+        ReqtifyCircuitBreaker breaker = new ReqtifyCircuitBreaker(1, 0, 0);
+        breaker.onComplete(true, 0, true);
+        assertEquals(ReqtifyCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.tryAcquire());
+        assertEquals(ReqtifyCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        breaker.onComplete(false, 0, true);
+        assertEquals(ReqtifyCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void failedProbeOpensAgain() {
+        ReqtifyCircuitBreaker breaker = new ReqtifyCircuitBreaker(3, 0, 0);
+        for (int i = 0; i < 3; i++) {
+            breaker.onComplete(true, 0, true);
+        }
+        assertTrue(breaker.tryAcquire());
+        breaker.onComplete(true, 0, true);
+        assertEquals(ReqtifyCircuitBreaker.State.OPEN, breaker.getState());
+    }
+}
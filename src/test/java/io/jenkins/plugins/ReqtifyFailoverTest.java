@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/**
+ * Crashes the first of two remote endpoints while a session uses it. The requests are answered by a
+ * stand-in for {@link Utils}, which records them.
+ */
+public class ReqtifyFailoverTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private final List<ServerSocket> sockets = new ArrayList<>();
+    private final Utils originalUtils = ReqtifyData.utils;
+    private StandInUtils utils;
+
+    private static final class StandInUtils extends Utils {
+        private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+        private volatile ReqtifyInstance crashing;
+        private volatile String crashingRequest;
+
+        @Override
+        public Object executeGET(
+                String targetURL,
+                ReqtifyInstance instance,
+                boolean buildRequest,
+                ReqtifyResponseHandler handler,
+                long deadline)
+                throws ReqtifyException {
+            String request = targetURL.substring(targetURL.indexOf("/jenkins/") + "/jenkins/".length());
+            if (instance == crashing && request.startsWith(crashingRequest)) {
+                throw new ReqtifyException(""); // Abnormal termination of Reqtify
+            }
+            requests.add(instance.getKey() + " " + request);
+            return null;
+        }
+
+        @Override
+        public String getLastLineOfFile(String path) {
+            return "";
+        }
+    }
+
+    @Before
+    public void configure() throws IOException {
+        utils = new StandInUtils();
+        ReqtifyData.utils = utils;
+        ReqtifyGlobalConfiguration config = ReqtifyGlobalConfiguration.get();
+        config.setBuildInstances(0);
+        config.setFailoverEnabled(true);
+        config.setFailoverMaxAttempts(1);
+        config.setEndpoints(Arrays.asList(
+                new ReqtifyEndpoint("localhost", listen(), 2), new ReqtifyEndpoint("localhost", listen(), 2)));
+    }
+
+    @After
+    public void restore() throws IOException {
+        ReqtifyData.utils = originalUtils;
+        for (ServerSocket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    private int listen() throws IOException {
+        ServerSocket socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        sockets.add(socket);
+        return socket.getLocalPort();
+    }
+
+    @Test
+    public void setupRequestsAreReplayedOnTheNewInstance() throws Exception {
+        try (ReqtifySession session = new ReqtifySession(ReqtifyLane.BUILD, "job", null)) {
+            session.openProject("/workspace/job");
+            session.call("setProjectFilterName?name=Coverage", false);
+            ReqtifyInstance crashed = session.getInstance();
+            utils.crashing = crashed;
+            utils.crashingRequest = "getFunctions?";
+            session.call("getFunctions?", true);
+            ReqtifyInstance replacement = session.getInstance();
+            assertNotSame(crashed, replacement);
+            String key = replacement.getKey();
+            assertEquals(
+                    Arrays.asList(
+                            crashed.getKey() + " openProject?dir=/workspace/job",
+                            crashed.getKey() + " setProjectFilterName?name=Coverage",
+                            key + " openProject?dir=/workspace/job",
+                            key + " setProjectFilterName?name=Coverage",
+                            key + " getFunctions?"),
+                    utils.requests);
+        }
+    }
+
+    @Test
+    public void theSessionReopensItsOwnProject() throws Exception {
+        ReqtifyInstance crashing = ReqtifyData.registry.acquire(ReqtifyLane.BUILD, "/workspace/job");
+        // Another session opened its project on the instance before
+        crashing.setLastProject("/workspace/other");
+        utils.crashing = crashing;
+        utils.crashingRequest = "openProject?";
+        try (ReqtifySession session = new ReqtifySession(ReqtifyLane.BUILD, "job", null)) {
+            session.openProject("/workspace/job");
+            String key = session.getInstance().getKey();
+            assertNotSame(crashing, session.getInstance());
+            for (String request : utils.requests) {
+                assertEquals(key + " openProject?dir=/workspace/job", request);
+            }
+            assertEquals("/workspace/job", session.getInstance().getLastProject());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ReqtifyFunctionCallTest {
+
+    @Test
+    public void noArguments() {
+        assertEquals("", ReqtifyFunctionCall.toArguments(null));
+        assertEquals("", ReqtifyFunctionCall.toArguments(new String[0]));
+        assertEquals("coverage?", ReqtifyFunctionCall.toRequest("coverage", null));
+    }
+
+    @Test
+    public void nonScalarIdsAndScalarValuesAreSeparated() {
+        String[] arguments = {"ns_12", "true", "ns_34", "name"};
+        assertEquals("&arg1=12,34&arg2=true,name", ReqtifyFunctionCall.toArguments(arguments));
+        assertEquals("coverage?arg1=12,34&arg2=true,name", ReqtifyFunctionCall.toRequest("coverage", arguments));
+    }
+
+    @Test
+    public void scalarValuesOnly() {
+        assertEquals("&arg2=a,b", ReqtifyFunctionCall.toArguments(new String[] {"a", "b"}));
+    }
+
+    @Test
+    public void manyIdsAreJoinedInOrder() {
+        String[] arguments = new String[5000];
+        StringBuilder expected = new StringBuilder("&arg1=");
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = "ns_" + i;
+            expected.append(i > 0 ? "," : "").append(i);
+        }
+        assertEquals(expected.toString(), ReqtifyFunctionCall.toArguments(arguments));
+    }
+
+    @Test
+    public void callUsesItsArguments() {
+        ReqtifyFunctionCall call = new ReqtifyFunctionCall("uncovered");
+        call.setArgumentList(new String[] {"ns_7"});
+        assertEquals("uncovered?arg1=7", call.toRequest());
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import jenkins.model.Jenkins;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/**
+ * Launches stand-in processes instead of Reqtify, each with a port opened by the test.
+ */
+public class ReqtifyInstanceRegistryTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private final List<Process> processes = new ArrayList<>();
+    private final List<ServerSocket> sockets = new ArrayList<>();
+
+    /**
+     * Stand-in for a Reqtify process, which only has to stay alive.
+     */
+    public static final class Idle {
+        public static void main(String[] args) throws InterruptedException {
+            Thread.sleep(TimeUnit.MINUTES.toMillis(10));
+        }
+    }
+
+    private final class StandInRegistry extends ReqtifyInstanceRegistry {
+        private final AtomicInteger launches = new AtomicInteger();
+
+        @Override
+        ReqtifyInstance launch(String key, ReqtifyLane lane) throws IOException {
+            launches.incrementAndGet();
+            try {
+                // Long enough for the other callers to find the launch in progress
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new ReqtifyInstance(key, lane, listen(), startIdle());
+        }
+    }
+
+    @After
+    public void stopStandIns() throws IOException {
+        for (Process process : processes) {
+            process.destroyForcibly();
+        }
+        for (ServerSocket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    private int listen() throws IOException {
+        ServerSocket socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        sockets.add(socket);
+        return socket.getLocalPort();
+    }
+
+    private Process startIdle() throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Idle.class.getName())
+                .start();
+        processes.add(process);
+        return process;
+    }
+
+    @Test
+    public void concurrentCallersShareOneLaunch() throws Exception {
+        ReqtifyGlobalConfiguration.get().setBuildInstances(1);
+        StandInRegistry registry = new StandInRegistry();
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<ReqtifyInstance>> callers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            callers.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    start.await();
+                    return registry.acquire(ReqtifyLane.BUILD, "/workspace/job");
+                } catch (IOException | InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+        }
+        start.countDown();
+        ReqtifyInstance first = callers.get(0).get(30, TimeUnit.SECONDS);
+        for (CompletableFuture<ReqtifyInstance> caller : callers) {
+            assertSame(first, caller.get(30, TimeUnit.SECONDS));
+        }
+        assertEquals(1, registry.launches.get());
+    }
+
+    @Test
+    public void exitedInstanceIsReplaced() throws Exception {
+        ReqtifyGlobalConfiguration.get().setBuildInstances(1);
+        StandInRegistry registry = new StandInRegistry();
+        ReqtifyInstance first = registry.acquire(ReqtifyLane.BUILD, "/workspace/job");
+        // Exiting after a first answer is not a failed launch
+        first.markServed();
+        processes.get(0).destroyForcibly().waitFor(30, TimeUnit.SECONDS);
+        ReqtifyInstance second = registry.acquire(ReqtifyLane.BUILD, "/workspace/job");
+        assertNotSame(first, second);
+        assertEquals(2, registry.launches.get());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void reattachesToTheInstancesOfConfiguredSlots() throws Exception {
+        ReqtifyGlobalConfiguration.get().setBuildInstances(1);
+        Process configured = startIdle();
+        Process removedSlot = startIdle();
+        int port = listen();
+        JSONArray entries = new JSONArray();
+        entries.add(entry("build-0", configured, port));
+        entries.add(entry("build-3", removedSlot, listen()));
+        // Written by another version of the plugin
+        JSONObject malformed = new JSONObject();
+        malformed.put("key", "build-1");
+        entries.add(malformed);
+        Files.write(
+                Paths.get(Jenkins.get().getRootDir().getPath(), "reqtify-instances.json"),
+                entries.toJSONString().getBytes(StandardCharsets.UTF_8));
+
+        StandInRegistry registry = new StandInRegistry();
+        registry.reattach();
+        assertTrue("The process of a removed slot is killed", removedSlot.waitFor(30, TimeUnit.SECONDS));
+        ReqtifyInstance instance = registry.acquire(ReqtifyLane.BUILD, "/workspace/job");
+        assertEquals(configured.pid(), instance.getPid());
+        assertEquals(port, instance.getPort());
+        assertEquals(0, registry.launches.get());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject entry(String key, Process process, int port) {
+        JSONObject entry = new JSONObject();
+        entry.put("key", key);
+        entry.put("lane", ReqtifyLane.BUILD.name());
+        entry.put("pid", process.pid());
+        entry.put("port", port);
+        entry.put("project", "/workspace/job");
+        entry.put("startTime", process.info()
+                .startInstant()
+                .map(Instant::toEpochMilli)
+                .orElse(System.currentTimeMillis()));
+        return entry;
+    }
+
+    @Test
+    public void remoteEndpointWithSpareCapacityIsUsedBeforeLaunching() throws Exception {
+        ReqtifyGlobalConfiguration config = ReqtifyGlobalConfiguration.get();
+        config.setBuildInstances(1);
+        config.setBuildMaxConcurrentRequests(1);
+        config.setEndpoints(Collections.singletonList(new ReqtifyEndpoint("localhost", listen(), 2)));
+        StandInRegistry registry = new StandInRegistry();
+        ReqtifyInstance remote = registry.acquire(ReqtifyLane.BUILD, "/workspace/job");
+        assertTrue(remote.isRemote());
+        // Limited by its own capacity, not by the requests per build instance
+        remote.getAdmissionQueue().acquire("job");
+        assertSame(remote, registry.acquire(ReqtifyLane.BUILD, "/workspace/job"));
+        assertEquals(0, registry.launches.get());
+        remote.getAdmissionQueue().acquire("job");
+        assertFalse(registry.acquire(ReqtifyLane.BUILD, "/workspace/job").isRemote());
+        assertEquals(1, registry.launches.get());
+    }
+}
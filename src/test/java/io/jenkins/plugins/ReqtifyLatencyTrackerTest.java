@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class ReqtifyLatencyTrackerTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void percentileIsUnknownWithFewSamples() {
+        ReqtifyLatencyTracker tracker = new ReqtifyLatencyTracker();
+        for (int i = 0; i < 9; i++) {
+            tracker.record("getFunctions /ws", 100);
+        }
+        assertEquals(-1, tracker.getPercentile("getFunctions /ws"));
+        tracker.record("getFunctions /ws", 100);
+        assertEquals(100, tracker.getPercentile("getFunctions /ws"));
+    }
+
+    @Test
+    public void percentileIgnoresTheSlowestOutlier() {
+        ReqtifyLatencyTracker tracker = new ReqtifyLatencyTracker();
+        for (int i = 1; i <= 100; i++) {
+            tracker.record("generateReport /ws", i);
+        }
+        assertEquals(99, tracker.getPercentile("generateReport /ws"));
+    }
+
+    @Test
+    public void onlyTheRecentSamplesAreKept() {
+        ReqtifyLatencyTracker tracker = new ReqtifyLatencyTracker();
+        for (int i = 0; i < 100; i++) {
+            tracker.record("getFunctions /ws", 5000);
+        }
+        for (int i = 0; i < 100; i++) {
+            tracker.record("getFunctions /ws", 10);
+        }
+        assertEquals(10, tracker.getPercentile("getFunctions /ws"));
+    }
+
+    @Test
+    public void leastRecentlyUsedKeysAreDropped() {
+        ReqtifyLatencyTracker tracker = new ReqtifyLatencyTracker();
+        for (int i = 0; i < 10; i++) {
+            tracker.record("getFunctions /old", 100);
+            tracker.record("getFunctions /used", 100);
+        }
+        for (int i = 0; i < 1000; i++) {
+            tracker.record("getFunctions /ws" + i, 100);
+            if (i == 500) {
+                tracker.getPercentile("getFunctions /used");
+            }
+        }
+        assertEquals(-1, tracker.getPercentile("getFunctions /old"));
+        assertEquals(100, tracker.getPercentile("getFunctions /used"));
+    }
+
+    @Test
+    public void projectOpeningsAreNotTracked() {
+        ReqtifyInstance instance = new ReqtifyInstance("remote", "localhost", 4000, 1);
+        instance.setLastProject("/ws");
+        String baseUrl = "http://localhost:4000/jenkins/";
+        assertEquals("getFunctions /ws", ReqtifyLatencyTracker.key(baseUrl + "getFunctions?", instance));
+        assertNull(ReqtifyLatencyTracker.key(baseUrl + "openProject?dir=/ws", instance));
+    }
+
+    @Test
+    public void timeoutIsRaisedAfterARequestTimedOut() {
+        ReqtifyGlobalConfiguration config = ReqtifyGlobalConfiguration.get();
+        config.setAdaptiveTimeoutFloor(1);
+        config.setAdaptiveTimeoutCeiling(3600);
+        ReqtifyLatencyTracker tracker = new ReqtifyLatencyTracker();
+        for (int i = 0; i < 100; i++) {
+            tracker.record("getFunctions /ws", 100);
+        }
+        assertEquals(1000, tracker.getTimeout("getFunctions /ws"));
+        tracker.recordTimeout("getFunctions /ws", 2000);
+        // A single slow request is an outlier for the percentile, but no longer times out
+        assertEquals(6000, tracker.getTimeout("getFunctions /ws"));
+    }
+}
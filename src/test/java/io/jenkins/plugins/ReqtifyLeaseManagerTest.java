@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class ReqtifyLeaseManagerTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private final ReqtifyLeaseManager leases = new ReqtifyLeaseManager();
+    private final List<String> granted = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void configureCapacity() {
+        ReqtifyGlobalConfiguration config = ReqtifyGlobalConfiguration.get();
+        config.setBuildInstances(1);
+        config.setBuildMaxConcurrentRequests(2);
+        config.setEndpoints(Collections.emptyList());
+        config.setQuotas(Collections.emptyList());
+    }
+
+    @Test
+    public void buildsBeyondTheCapacityWait() throws Exception {
+        ReqtifyLeaseManager.Lease first = leases.acquire("a", null);
+        leases.acquire("b", null);
+        Thread third = acquireInBackground("c");
+        assertEquals(2, leases.getHeld());
+        assertFalse(granted.contains("c"));
+        first.close();
+        third.join(10000);
+        assertEquals(Collections.singletonList("c"), granted);
+        assertEquals(2, leases.getHeld());
+    }
+
+    @Test
+    public void closingTwiceReleasesOnce() throws Exception {
+        ReqtifyLeaseManager.Lease lease = leases.acquire("a", null);
+        leases.acquire("b", null);
+        lease.close();
+        lease.close();
+        assertEquals(1, leases.getHeld());
+    }
+
+    @Test
+    public void buildsWithinAllTheirQuotasGoFirst() throws Exception {
+        // The job is within the quota of its folder but not of the enclosing one
+        ReqtifyGlobalConfiguration.get()
+                .setQuotas(Arrays.asList(new ReqtifyQuota("team/sub", 5), new ReqtifyQuota("team", 1)));
+        ReqtifyLeaseManager.Lease team = leases.acquire("team/a", null);
+        ReqtifyLeaseManager.Lease other = leases.acquire("other/a", null);
+        Thread overQuota = acquireInBackground("team/sub/b");
+        Thread withinQuota = acquireInBackground("other/b");
+        other.close();
+        withinQuota.join(10000);
+        assertEquals(Collections.singletonList("other/b"), granted);
+        team.close();
+        overQuota.join(10000);
+        assertEquals(Arrays.asList("other/b", "team/sub/b"), granted);
+    }
+
+    @Test
+    public void idleCapacityIsBorrowedOverTheQuota() throws Exception {
+        ReqtifyGlobalConfiguration.get().setQuotas(Collections.singletonList(new ReqtifyQuota("team", 1)));
+        leases.acquire("team/a", null);
+        assertNotNull(leases.acquire("team/b", null));
+        assertEquals(2, leases.getHeld());
+    }
+
+    @Test
+    public void failsWithoutAnyReqtifyServer() throws Exception {
+        ReqtifyGlobalConfiguration.get().setBuildInstances(0);
+        try {
+            leases.acquire("a", null);
+            fail("No lease can be granted without capacity");
+        } catch (ConnectException e) {
+            assertEquals(0, leases.getHeld());
+        }
+    }
+
+    /**
+     * Starts a thread acquiring a lease for the job and returns once it waits for it.
+     */
+    private Thread acquireInBackground(String job) throws InterruptedException {
+        Thread thread = new Thread(() -> {
+            try {
+                leases.acquire(job, null);
+                granted.add(job);
+            } catch (InterruptedException | ConnectException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        while (thread.isAlive() && thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+        return thread;
+    }
+}
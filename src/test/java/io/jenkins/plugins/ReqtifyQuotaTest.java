@@ -0,0 +1,55 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ReqtifyQuotaTest {
+
+    @Test
+    public void pathIsTrimmedOfSlashes() {
+        ReqtifyQuota quota = new ReqtifyQuota(" /team/project/ ", 2);
+        assertEquals("team/project", quota.getPath());
+        assertEquals(2, quota.getMaxLeases());
+    }
+
+    @Test
+    public void atLeastOneLeaseIsAllowed() {
+        assertEquals(1, new ReqtifyQuota("team", 0).getMaxLeases());
+    }
+
+    @Test
+    public void matchesTheJobAndTheJobsOfTheFolder() {
+        ReqtifyQuota quota = new ReqtifyQuota("team", 1);
+        assertTrue(quota.matches("team"));
+        assertTrue(quota.matches("team/project"));
+        assertTrue(quota.matches("team/sub/project"));
+        assertFalse(quota.matches("teamwork"));
+        assertFalse(quota.matches("other/team"));
+    }
+}
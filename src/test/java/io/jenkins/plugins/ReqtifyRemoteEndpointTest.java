@@ -0,0 +1,240 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/**
+ * Sends requests to a remote endpoint served by a stand-in for the Reqtify server.
+ */
+public class ReqtifyRemoteEndpointTest {
+
+    private static final String FUNCTIONS = "[\"coverage\", \"uncovered\"]";
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private HttpServer server;
+    // Time the stand-in takes to answer, in milliseconds
+    private volatile long delay;
+    private final List<Request> requests = Collections.synchronizedList(new ArrayList<>());
+
+    private static final class Request {
+        private final String method;
+        private final String path;
+        private final String query;
+        private final String acceptEncoding;
+        private final String body;
+
+        Request(HttpExchange exchange, String body) {
+            this.method = exchange.getRequestMethod();
+            this.path = exchange.getRequestURI().getPath();
+            this.query = exchange.getRequestURI().getRawQuery();
+            this.acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            this.body = body;
+        }
+    }
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/jenkins/", this::answer);
+        server.start();
+        ReqtifyGlobalConfiguration config = ReqtifyGlobalConfiguration.get();
+        config.setBuildInstances(0);
+        config.setEndpoints(Collections.singletonList(
+                new ReqtifyEndpoint("localhost", server.getAddress().getPort(), 2)));
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private void answer(HttpExchange exchange) throws IOException {
+        requests.add(new Request(exchange, read(exchange.getRequestBody())));
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        byte[] answer = FUNCTIONS.getBytes(StandardCharsets.UTF_8);
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream out = new GZIPOutputStream(compressed)) {
+                out.write(answer);
+            }
+            answer = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(200, answer.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(answer);
+        }
+    }
+
+    @Test
+    public void buildsUseTheRemoteEndpoint() throws Exception {
+        assertEquals(2, ReqtifyQueueTaskDispatcher.getCapacity());
+        try (ReqtifySession session = new ReqtifySession(ReqtifyLane.BUILD, "job", null)) {
+            session.openProject("/workspace/job");
+            assertEquals(Arrays.asList("coverage", "uncovered"), session.call("getFunctions?", true));
+            assertTrue(session.getInstance().isRemote());
+        }
+        assertEquals(2, requests.size());
+        assertEquals("/jenkins/openProject", requests.get(0).path);
+        assertEquals("dir=/workspace/job", requests.get(0).query);
+        assertEquals("/jenkins/getFunctions", requests.get(1).path);
+        // The answers of a remote server are compressed
+        assertEquals("gzip", requests.get(1).acceptEncoding);
+    }
+
+    @Test
+    public void longArgumentsAreSentInThePostBody() throws Exception {
+        ReqtifyGlobalConfiguration.get().setMaxQueryLength(16);
+        StringBuilder ids = new StringBuilder("arg1=0");
+        for (int i = 1; i < 1000; i++) {
+            ids.append(',').append(i);
+        }
+        try (ReqtifySession session = new ReqtifySession(ReqtifyLane.BUILD, "job", null)) {
+            session.call("coverage?arg2=x", true);
+            session.call("coverage?" + ids, true);
+        }
+        assertEquals("GET", requests.get(0).method);
+        assertEquals("arg2=x", requests.get(0).query);
+        assertEquals("POST", requests.get(1).method);
+        assertEquals("/jenkins/coverage", requests.get(1).path);
+        assertNull(requests.get(1).query);
+        assertEquals(ids.toString(), requests.get(1).body);
+    }
+
+    @Test
+    public void requestIsAbandonedOnceTheDeadlineHasPassed() throws Exception {
+        ReqtifyGlobalConfiguration.get().setBreakerFailureThreshold(1);
+        delay = 10000;
+        ReqtifyInstance remote = ReqtifyData.registry.acquire(ReqtifyLane.BUILD, null);
+        String targetURL = remote.getBaseUrl() + "/jenkins/getFunctions?";
+        long start = System.currentTimeMillis();
+        try {
+            ReqtifyData.utils.executeGET(targetURL, remote, true, null, start + 500);
+            fail("The deadline has passed");
+        } catch (ReqtifyTimeoutException e) {
+            assertTrue(System.currentTimeMillis() - start < delay);
+        }
+        // A server that does not answer in time is failing
+        assertTrue(remote.getCircuitBreaker().isOpen());
+    }
+
+    @Test
+    public void interruptAbortsTheRequest() throws Exception {
+        ReqtifyGlobalConfiguration.get().setBreakerFailureThreshold(1);
+        delay = 10000;
+        ReqtifyInstance remote = ReqtifyData.registry.acquire(ReqtifyLane.BUILD, null);
+        CompletableFuture<Throwable> failure = new CompletableFuture<>();
+        Thread caller = new Thread(() -> {
+            try {
+                ReqtifyData.utils.executeGET(remote.getBaseUrl() + "/jenkins/getFunctions?", remote, true, null, 0);
+                failure.complete(null);
+            } catch (Throwable t) {
+                failure.complete(t);
+            }
+        });
+        caller.start();
+        while (requests.isEmpty()) {
+            Thread.sleep(10);
+        }
+        caller.interrupt();
+        Throwable aborted = failure.get(delay / 2, TimeUnit.MILLISECONDS);
+        assertTrue(String.valueOf(aborted), aborted instanceof InterruptedIOException);
+        assertFalse(aborted instanceof ReqtifyTimeoutException);
+        // An aborted build says nothing about the health of the server
+        assertFalse(remote.getCircuitBreaker().isOpen());
+    }
+
+    @Test
+    public void unreachableEndpointIsNamedAndSkipped() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        ReqtifyGlobalConfiguration config = ReqtifyGlobalConfiguration.get();
+        config.setRetryMaxAttempts(2);
+        config.setRetryInitialDelay(1);
+        config.setRetryMaxDelay(1);
+        config.setEndpoints(Collections.singletonList(new ReqtifyEndpoint("localhost", port, 2)));
+        try (ReqtifySession session = new ReqtifySession(ReqtifyLane.BUILD, "job", null)) {
+            session.call("getFunctions?", true);
+            fail("The endpoint is not listening");
+        } catch (ConnectException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("http://localhost:" + port));
+        }
+        // Left out of the capacity until the health check reaches it again
+        assertEquals(0, ReqtifyQueueTaskDispatcher.getCapacity());
+        try (ReqtifySession session = new ReqtifySession(ReqtifyLane.BUILD, "job", null)) {
+            fail("No Reqtify server is available");
+        } catch (ConnectException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("No Reqtify server is available"));
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            content.write(buffer, 0, read);
+        }
+        return new String(content.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
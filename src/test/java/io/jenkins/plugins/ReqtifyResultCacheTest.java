@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import hudson.FilePath;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class ReqtifyResultCacheTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void keyChangesWithTheProjectInputs() throws Exception {
+        File workspace = tmp.newFolder();
+        write(new File(workspace, "project.rqtf"), "v1");
+        String key = ReqtifyResultCache.key("coverage?", workspace.getPath());
+        assertEquals(key, ReqtifyResultCache.key("coverage?", workspace.getPath()));
+        assertNotEquals(key, ReqtifyResultCache.key("uncovered?", workspace.getPath()));
+        write(new File(workspace, "project.rqtf"), "version 2");
+        assertNotEquals(key, ReqtifyResultCache.key("coverage?", workspace.getPath()));
+    }
+
+    @Test
+    public void outputsOfThePluginAreNotProjectInputs() throws Exception {
+        File workspace = tmp.newFolder();
+        write(new File(workspace, "project.rqtf"), "v1");
+        String key = ReqtifyResultCache.key("coverage?", workspace.getPath());
+        File report = new File(workspace, "coverage.docx");
+        ReqtifyData.resultCache.registerOutput(new FilePath(report));
+        write(report, "report");
+        assertEquals(key, ReqtifyResultCache.key("coverage?", workspace.getPath()));
+        write(new File(workspace, "requirements.docx"), "input");
+        assertNotEquals(key, ReqtifyResultCache.key("coverage?", workspace.getPath()));
+    }
+
+    @Test
+    public void resultsSurviveARestart() throws Exception {
+        List<String> result = Arrays.asList("REQ-1", "REQ-2");
+        new ReqtifyResultCache().put("key", result);
+        // Saved in the background
+        long deadline = System.currentTimeMillis() + 10000;
+        Object restored = null;
+        while (restored == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+            restored = new ReqtifyResultCache().get("key");
+        }
+        assertEquals(result, restored);
+    }
+
+    private static void write(File file, String content) throws Exception {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import hudson.FilePath;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.json.simple.parser.JSONParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReqtifyResultFileTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void jsonIsCopiedAsIs() throws Exception {
+        File file = new File(tmp.getRoot(), "out/result.json");
+        String json = "{\"coverage\": [1, 2, 3]}";
+        Map<?, ?> summary =
+                (Map<?, ?>) new ReqtifyResultFile(new FilePath(file), false).handle(new StringReader(json));
+        assertEquals(json, new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        assertEquals(file.getPath(), summary.get("path"));
+        assertEquals((long) json.length(), summary.get("size"));
+        assertEquals(1L, summary.get("records"));
+    }
+
+    @Test
+    public void jsonLinesWritesEachElementOfTheArray() throws Exception {
+        File file = new File(tmp.getRoot(), "result.jsonl");
+        String json = "[{\"id\": \"R1\", \"links\": [\"a\", {\"id\": \"b\"}]}, {\"id\": \"R2\"}, 3]";
+        Map<?, ?> summary =
+                (Map<?, ?>) new ReqtifyResultFile(new FilePath(file), true).handle(new StringReader(json));
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(3, lines.size());
+        assertEquals(((List<?>) parse(json)).get(0), parse(lines.get(0)));
+        assertEquals(Collections.singletonMap("id", "R2"), parse(lines.get(1)));
+        assertEquals(3L, parse(lines.get(2)));
+        assertEquals(3L, summary.get("records"));
+    }
+
+    @Test
+    public void jsonLinesWritesATopLevelObjectOnOneLine() throws Exception {
+        File file = new File(tmp.getRoot(), "result.jsonl");
+        String json = "{\"uncovered\": [\"R1\", \"R2\"]}";
+        Object summary = new ReqtifyResultFile(new FilePath(file), true).handle(new StringReader(json));
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(1, lines.size());
+        assertEquals(Collections.singletonMap("uncovered", Arrays.asList("R1", "R2")), parse(lines.get(0)));
+        assertEquals(
+                "written to " + file.getPath() + " (" + file.length() + " bytes, 1 records)",
+                ReqtifyResultFile.summarize(summary));
+    }
+
+    private static Object parse(String json) throws Exception {
+        return new JSONParser().parse(json);
+    }
+}
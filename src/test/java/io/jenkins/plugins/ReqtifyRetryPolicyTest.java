@@ -0,0 +1,70 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import org.junit.Test;
+
+public class ReqtifyRetryPolicyTest {
+
+    private static final String FUNCTIONS = "http://localhost:4000/jenkins/getFunctions?";
+    private static final String REPORT = "http://localhost:4000/jenkins/generateReport?aReportModel=m";
+
+    @Test
+    public void refusedConnectionsAreRetriedUpToTheMaximum() {
+        ReqtifyRetryPolicy policy = new ReqtifyRetryPolicy(3, 10, 100);
+        assertTrue(policy.shouldRetry(new ConnectException(), REPORT, 1));
+        assertTrue(policy.shouldRetry(new ConnectException(), REPORT, 2));
+        assertFalse(policy.shouldRetry(new ConnectException(), REPORT, 3));
+    }
+
+    @Test
+    public void otherFailuresAreRetriedOnlyForIdempotentEndpoints() {
+        ReqtifyRetryPolicy policy = new ReqtifyRetryPolicy(3, 10, 100);
+        assertTrue(policy.shouldRetry(new SocketTimeoutException(), FUNCTIONS, 1));
+        assertFalse(policy.shouldRetry(new SocketTimeoutException(), REPORT, 1));
+    }
+
+    @Test
+    public void reportsAreReplayableButNotIdempotent() {
+        assertFalse(ReqtifyRetryPolicy.isIdempotent(REPORT));
+        assertTrue(ReqtifyRetryPolicy.isReplayable(REPORT));
+        assertTrue(ReqtifyRetryPolicy.isReplayable(FUNCTIONS));
+    }
+
+    @Test
+    public void backoffStaysWithinTheCeiling() {
+        ReqtifyRetryPolicy policy = new ReqtifyRetryPolicy(10, 10, 100);
+        for (int i = 0; i < 100; i++) {
+            long first = policy.backoffDelay(1);
+            assertTrue(first >= 0 && first <= 10);
+            long later = policy.backoffDelay(30);
+            assertTrue(later >= 0 && later <= 100);
+        }
+    }
+}
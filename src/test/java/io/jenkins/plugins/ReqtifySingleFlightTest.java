@@ -0,0 +1,141 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Dassault Systèmes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.jenkins.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import hudson.FilePath;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class ReqtifySingleFlightTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void waitersReceiveTheResultOfTheFirstRequest() throws Exception {
+        ReqtifySingleFlight flights = new ReqtifySingleFlight();
+        assertNull(flights.await("key", null));
+        CompletableFuture<Object> waiter = awaitInBackground(flights, "key");
+        flights.land("key", "result");
+        assertEquals("result", waiter.get(10, TimeUnit.SECONDS));
+        // Landed requests are not reused
+        assertNull(flights.await("key", null));
+    }
+
+    @Test
+    public void waiterSendsTheRequestAfterAFailure() throws Exception {
+        ReqtifySingleFlight flights = new ReqtifySingleFlight();
+        assertNull(flights.await("key", null));
+        CompletableFuture<Object> waiter = awaitInBackground(flights, "key");
+        flights.land("key", null);
+        assertNull(waiter.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void reportContentIsReadOnlyForWaitingBuilds() throws Exception {
+        ReqtifySingleFlight flights = new ReqtifySingleFlight();
+        File report = new File(tmp.newFolder(), "coverage.docx");
+        write(report, "report");
+        assertNull(flights.await("key", null));
+        assertNull(flights.reportContent("key", new FilePath(report)));
+        CompletableFuture<Object> waiter = awaitInBackground(flights, "key");
+        flights.land("key", flights.reportContent("key", new FilePath(report)));
+        // The next build of the job may overwrite the report before the waiter copies it
+        write(report, "next build");
+        assertArrayEquals("report".getBytes(StandardCharsets.UTF_8), (byte[]) waiter.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void nullKeyIsNeverShared() throws Exception {
+        ReqtifySingleFlight flights = new ReqtifySingleFlight();
+        assertNull(flights.await(null, null));
+        assertNull(flights.await(null, null));
+    }
+
+    @Test
+    public void requestsAreSharedOnlyWithInputPatterns() throws Exception {
+        File workspace = tmp.newFolder();
+        write(new File(workspace, "project.rqtf"), "project");
+        ReqtifyGlobalConfiguration config = ReqtifyGlobalConfiguration.get();
+        assertNull(ReqtifySingleFlight.key("getFunctions?", workspace.getPath()));
+        config.setShareIdenticalRequests(true);
+        assertNull(ReqtifySingleFlight.key("getFunctions?", workspace.getPath()));
+        config.setResultCacheInputs("**.rqtf");
+        assertNotNull(ReqtifySingleFlight.key("getFunctions?", workspace.getPath()));
+    }
+
+    @Test
+    public void checkoutsWithTheSameContentShareTheKey() throws Exception {
+        ReqtifyGlobalConfiguration config = ReqtifyGlobalConfiguration.get();
+        config.setShareIdenticalRequests(true);
+        config.setResultCacheInputs("**.rqtf");
+        File branch = tmp.newFolder();
+        File pullRequest = tmp.newFolder();
+        write(new File(branch, "project.rqtf"), "project");
+        write(new File(pullRequest, "project.rqtf"), "project");
+        write(new File(pullRequest, "build.log"), "not an input");
+        String key = ReqtifySingleFlight.key("getFunctions?", branch.getPath());
+        assertEquals(key, ReqtifySingleFlight.key("getFunctions?", pullRequest.getPath()));
+        write(new File(pullRequest, "project.rqtf"), "changed");
+        assertNotEquals(key, ReqtifySingleFlight.key("getFunctions?", pullRequest.getPath()));
+        assertNotEquals(key, ReqtifySingleFlight.key("getReportModels?", branch.getPath()));
+    }
+
+    private static CompletableFuture<Object> awaitInBackground(ReqtifySingleFlight flights, String key)
+            throws InterruptedException {
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                result.complete(flights.await(key, null));
+            } catch (InterruptedException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        thread.start();
+        while (thread.isAlive() && thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+        return result;
+    }
+
+    private static void write(File file, String content) throws Exception {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}